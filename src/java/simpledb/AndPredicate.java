@@ -0,0 +1,58 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * AndPredicate is true for the tuples all of its terms are true for. It
+ * stops at the first term that is false, and runs first the terms that
+ * are cheap and turn many tuples down.
+ */
+public class AndPredicate extends CompoundPredicate {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param terms
+     *            the predicates that must all hold; at least one
+     */
+    public AndPredicate(Predicate... terms) {
+        super(terms);
+    }
+
+    /** Cost paid per tuple the term turns down. */
+    double rank(Term t) {
+        return t.m_cost / Math.max(1e-6, 1 - t.selectivity());
+    }
+
+    boolean eval(Tuple tup, HeapPage page, ByteBuffer data, int slot) {
+        boolean pass = true;
+        for (Term t : m_terms) {
+            t.m_seen++;
+            if (!test(t.m_pred, tup, page, data, slot)) {
+                pass = false;
+                break;
+            }
+            t.m_passed++;
+        }
+        evaluated(1);
+        return pass;
+    }
+
+    /** Each term only looks at the rows the terms before it kept. */
+    public void filter(TupleBatch b) {
+        int n = b.numSelected();
+        for (Term t : m_terms) {
+            int before = b.numSelected();
+            if (before == 0)
+                break;
+            t.m_pred.filter(b);
+            t.m_seen += before;
+            t.m_passed += b.numSelected();
+        }
+        evaluated(n);
+    }
+
+    public String toString() {
+        return toString("AND");
+    }
+}
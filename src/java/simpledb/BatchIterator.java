@@ -0,0 +1,42 @@
+package simpledb;
+
+/**
+ * BatchIterator is the batch-at-a-time counterpart of DbIterator and
+ * DbFileIterator: each call hands over up to a TupleBatch full of tuples,
+ * stored column by column, instead of one Tuple. Operators that loop over
+ * the column arrays of a batch avoid a call and a Tuple per row.
+ * <p>
+ * TupleToBatchIterator and BatchToTupleIterator turn one kind of iterator
+ * into the other, so batch and tuple operators can be mixed in a plan.
+ *
+ * @see TupleBatch
+ */
+public interface BatchIterator {
+    /**
+     * Opens the iterator.
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    public void open()
+        throws DbException, TransactionAbortedException;
+
+    /**
+     * Clears b and fills it with the next tuples, at most b.capacity() of
+     * them. All rows added are live.
+     *
+     * @param b a batch with the schema of the tuples of this iterator
+     * @return false if there were no more tuples, in which case b is empty
+     */
+    public boolean nextBatch(TupleBatch b)
+        throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     * @throws DbException When rewind is unsupported.
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
@@ -0,0 +1,79 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Implements a DbIterator on top of a BatchIterator, handing over the live
+ * rows of each batch one at a time. Lets tuple operators sit above batch
+ * operators.
+ */
+public class BatchToTupleIterator implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator m_child;
+    private final TupleDesc m_td;
+    private final int m_capacity;
+    private transient TupleBatch m_batch;
+    /** the next live row of m_batch to hand over */
+    private int m_next;
+
+    /**
+     * @param child
+     *            the iterator whose batches are handed over a tuple at a time
+     * @param td
+     *            the schema of the tuples of child
+     * @param capacity
+     *            the number of rows of the batches asked of child
+     */
+    public BatchToTupleIterator(BatchIterator child, TupleDesc td, int capacity) {
+        m_child = child;
+        m_td = td;
+        m_capacity = capacity;
+    }
+
+    public BatchToTupleIterator(BatchIterator child, TupleDesc td) {
+        this(child, td, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        m_child.open();
+        if (m_batch == null)
+            m_batch = new TupleBatch(m_td, m_capacity);
+        m_batch.clear();
+        m_next = 0;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (m_batch == null)
+            throw new IllegalStateException("iterator is not open");
+        while (m_next >= m_batch.numSelected()) {
+            m_next = 0;
+            if (!m_child.nextBatch(m_batch))
+                return false;
+        }
+        return true;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return m_batch.getTuple(m_batch.selected(m_next++));
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_child.rewind();
+        m_batch.clear();
+        m_next = 0;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    public void close() {
+        m_child.close();
+        m_batch = null;
+    }
+}
@@ -0,0 +1,139 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * BetweenPredicate is true for the tuples whose field lies between two
+ * values, both included. It reads the field once for both bounds.
+ */
+public class BetweenPredicate extends Predicate {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Field m_low;
+    private final Field m_high;
+    /** the bounds, if the field is an int field */
+    private final int m_lowInt, m_highInt;
+    /** the comparisons against the bounds, built on first use */
+    private transient Bounds m_bounds;
+
+    /**
+     * The comparisons of a string field against both bounds. They are
+     * published together, so that a scan in another thread never sees
+     * one without the other.
+     */
+    private static final class Bounds {
+        final StringEvaluator m_low, m_high;
+
+        Bounds(int field, String low, String high) {
+            m_low = new StringEvaluator(field, Op.GREATER_THAN_OR_EQ, low);
+            m_high = new StringEvaluator(field, Op.LESS_THAN_OR_EQ, high);
+        }
+    }
+
+    /**
+     * @param field
+     *            field number of passed in tuples to compare
+     * @param low
+     *            the smallest value let through
+     * @param high
+     *            the largest value let through; of the type of low
+     */
+    public BetweenPredicate(int field, Field low, Field high) {
+        super(field);
+        if (low.getType() != high.getType())
+            throw new IllegalArgumentException("bounds of different types");
+        m_low = low;
+        m_high = high;
+        if (low.getType() == Type.INT_TYPE) {
+            m_lowInt = ((IntField) low).getValue();
+            m_highInt = ((IntField) high).getValue();
+        } else {
+            m_lowInt = m_highInt = 0;
+        }
+    }
+
+    /** @return the smallest value let through */
+    public Field getLow() {
+        return m_low;
+    }
+
+    /** @return the largest value let through */
+    public Field getHigh() {
+        return m_high;
+    }
+
+    public Predicate bind(TupleDesc td) {
+        checkField(td, m_low.getType());
+        if (!isInt())
+            bounds();
+        return this;
+    }
+
+    double cost() {
+        return m_low.getType() == Type.INT_TYPE ? 1 : 6;
+    }
+
+    private boolean isInt() {
+        return m_low.getType() == Type.INT_TYPE;
+    }
+
+    /** @return the string comparisons against the bounds */
+    private Bounds bounds() {
+        Bounds b = m_bounds;
+        if (b == null) {
+            b = new Bounds(getField(), ((StringField) m_low).getValue(),
+                    ((StringField) m_high).getValue());
+            m_bounds = b;
+        }
+        return b;
+    }
+
+    public boolean filter(Tuple t) {
+        if (isInt()) {
+            int v = t.getInt(getField());
+            return v >= m_lowInt && v <= m_highInt;
+        }
+        Bounds b = bounds();
+        return b.m_low.eval(t) && b.m_high.eval(t);
+    }
+
+    boolean filter(ByteBuffer data, int off) {
+        if (isInt()) {
+            int v = data.getInt(off);
+            return v >= m_lowInt && v <= m_highInt;
+        }
+        Bounds b = bounds();
+        return b.m_low.eval(data, off) && b.m_high.eval(data, off);
+    }
+
+    public void filter(TupleBatch b) {
+        int[] sel = b.getSelection();
+        int n = b.numSelected();
+        int kept = 0;
+        if (isInt()) {
+            int[] col = b.getIntColumn(getField());
+            int lo = m_lowInt, hi = m_highInt;
+            for (int k = 0; k < n; k++) {
+                int r = sel[k];
+                int v = col[r];
+                if (v >= lo && v <= hi)
+                    sel[kept++] = r;
+            }
+        } else {
+            String[] col = b.getStringColumn(getField());
+            String lo = ((StringField) m_low).getValue();
+            String hi = ((StringField) m_high).getValue();
+            for (int k = 0; k < n; k++) {
+                int r = sel[k];
+                if (col[r].compareTo(lo) >= 0 && col[r].compareTo(hi) <= 0)
+                    sel[kept++] = r;
+            }
+        }
+        b.setSelection(sel, kept);
+    }
+
+    public String toString() {
+        return "f = " + getField() + " BETWEEN " + m_low + " AND " + m_high;
+    }
+}
@@ -2,8 +2,15 @@ package simpledb;
 
 import java.io.*;
 
+import java.util.ArrayList;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 /**
  * BufferPool manages the reading and writing of pages into memory from
  * disk. Access methods call into it to retrieve pages, and it fetches
@@ -12,6 +19,20 @@ import java.util.HashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The page table is a ConcurrentHashMap, so hits never take a pool-wide
+ * lock. Misses are single-flight: the first caller to miss on a page
+ * reads it, and everybody else who asks for that page meanwhile waits for
+ * the same read instead of issuing their own. Eviction and installing a
+ * freshly read page synchronize on the pool itself. Frames carry a pin
+ * count, and pinned pages are never evicted.
+ * <p>
+ * When a read-ahead window is set, sequential scans have the pages ahead
+ * of them read by a background thread, so that parsing one page overlaps
+ * with reading the next ones. The pages are read in ranges with
+ * DbFile.readPages, one I/O call per range. Read-ahead is off by default;
+ * without it, a scan that misses on a page still reads it together with up
+ * to SCAN_RANGE_PAGES - 1 pages after it in one readPages call.
  * 
  * @Threadsafe, all fields are final
  */
@@ -20,22 +41,141 @@ public class BufferPool {
     public static final int PAGE_SIZE = 4096;
 
     private static int pageSize = PAGE_SIZE;
-    private int numPages;
-    private HashMap<PageId,Page> m_pages;
+    private final int numPages;
+    private final ConcurrentHashMap<PageId,Frame> m_frames;
+    private final ConcurrentHashMap<PageId,PageLoad> m_loading;
+    private final PageReplacementPolicy m_policy;
+    private final PageReplacementPolicy.Candidates m_evictable;
+    private final AtomicLong m_hits = new AtomicLong();
+    private final AtomicLong m_misses = new AtomicLong();
+    private final AtomicLong m_evictions = new AtomicLong();
+
+    /**
+     * A resident page and the number of callers that have it pinned.
+     * A pin count of -1 marks a frame that is being evicted and can no
+     * longer be pinned.
+     */
+    private static class Frame {
+        /** replaced only when a file hands back its own copy of the page */
+        volatile Page page;
+        final AtomicInteger pins = new AtomicInteger();
+
+        Frame(Page page) {
+            this.page = page;
+        }
+
+        boolean pin() {
+            while (true) {
+                int n = pins.get();
+                if (n < 0)
+                    return false;
+                if (pins.compareAndSet(n, n + 1))
+                    return true;
+            }
+        }
+
+        void unpin() {
+            while (true) {
+                int n = pins.get();
+                if (n <= 0 || pins.compareAndSet(n, n - 1))
+                    return;
+            }
+        }
+    }
+
+    /** A page read in flight; callers missing on the same page wait for it. */
+    private static class PageLoad {
+        private final CountDownLatch m_done = new CountDownLatch(1);
+        private Frame m_frame;
+        private Throwable m_error;
+
+        void complete(Frame frame) {
+            m_frame = frame;
+            m_done.countDown();
+        }
+
+        /** Hands error to every caller waiting for the read. */
+        void fail(Throwable error) {
+            m_error = error;
+            m_done.countDown();
+        }
+
+        /** @return the loaded frame, once the read has finished */
+        Frame await() throws DbException {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    m_done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            if (m_error instanceof DbException)
+                throw (DbException) m_error;
+            if (m_error instanceof Error)
+                throw (Error) m_error;
+            if (m_error != null)
+                throw (RuntimeException) m_error;
+            return m_frame;
+        }
+    }
     /** Default number of pages passed to the constructor. This is used by
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Scans over files larger than numPages / SCAN_RING_THRESHOLD pages
+    run in scan-resistant mode. */
+    public static final int SCAN_RING_THRESHOLD = 4;
+    /** A scan-resistant scan keeps at most numPages / SCAN_RING_FRACTION
+    frames (but at least MIN_SCAN_RING_PAGES) for itself. */
+    public static final int SCAN_RING_FRACTION = 8;
+    public static final int MIN_SCAN_RING_PAGES = 2;
+    /** A scan without read-ahead reads at most SCAN_RANGE_PAGES pages (but
+    at most a quarter of the pool) with one readPages call. */
+    public static final int SCAN_RANGE_PAGES = 8;
+
+    private volatile boolean m_scanResistant = true;
+    private volatile int m_readAheadWindow = 0;
+    private ThreadPoolExecutor m_prefetcher;
+
+    /** Seconds an idle read-ahead thread waits for work before exiting. */
+    private static final long PREFETCH_KEEP_ALIVE = 30;
+
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, replacing
+     * pages with the CLOCK policy.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, new ClockReplacementPolicy());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy used to pick eviction victims;
+     *        it must not be shared with another BufferPool.
+     */
+    public BufferPool(int numPages, PageReplacementPolicy policy) {
         // some code goes here
     	this.numPages = numPages;
-    	m_pages = new HashMap<PageId, Page>();
+    	m_frames = new ConcurrentHashMap<PageId, Frame>();
+    	m_loading = new ConcurrentHashMap<PageId, PageLoad>();
+    	m_policy = policy;
+    	// NO STEAL: dirty pages stay in the pool until their transaction ends
+    	m_evictable = new PageReplacementPolicy.Candidates() {
+    	    public boolean isEvictable(PageId pid) {
+    	        Frame frame = m_frames.get(pid);
+    	        return frame != null && frame.pins.get() == 0
+    	            && frame.page.isDirty() == null;
+    	    }
+    	};
     }
     
     public static int getPageSize() {
@@ -63,16 +203,323 @@ public class BufferPool {
      * @param perm the requested permissions on the page
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page on behalf of a sequential scan.
+     * <p>
+     * Behaves like {@link #getPage(TransactionId, PageId, Permissions)},
+     * except that when the pool is full and the page has to be read from
+     * disk, the scan first recycles the frame of the oldest page it read
+     * itself (see {@link ScanHint}).
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param hint the scan's hint, or null for a regular page request
+     */
+    public  Page getPage(TransactionId tid, PageId pid, Permissions perm, ScanHint hint)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        if (m_pages.containsKey(pid)){
-        	return m_pages.get(pid);
+        return fetch(pid, hint, false).page;
+    }
+
+    /**
+     * Retrieve the specified page and pin it: the page stays in the pool
+     * until every pin has been released with {@link #unpinPage}.
+     *
+     * @see #getPage(TransactionId, PageId, Permissions, ScanHint)
+     */
+    public  Page pinPage(TransactionId tid, PageId pid, Permissions perm, ScanHint hint)
+        throws TransactionAbortedException, DbException {
+        return fetch(pid, hint, true).page;
+    }
+
+    /**
+     * Release one pin on the specified page.
+     *
+     * @param pid the ID of a page previously returned by pinPage
+     */
+    public void unpinPage(PageId pid) {
+        Frame frame = m_frames.get(pid);
+        if (frame != null)
+            frame.unpin();
+    }
+
+    private Frame fetch(PageId pid, ScanHint hint, boolean pin) throws DbException {
+        while (true) {
+            Frame frame = m_frames.get(pid);
+            if (frame == null) {
+                frame = load(pid, hint, pin);
+                if (frame != null)
+                    return frame;
+                continue;
+            }
+            // lost a race against eviction: the frame is going away, retry
+            if (pin && !frame.pin())
+                continue;
+            m_hits.incrementAndGet();
+            m_policy.pageAccessed(pid);
+            return frame;
+        }
+    }
+
+    /**
+     * Reads a missing page, or waits for the read another caller already
+     * started. No lock is held during the read.
+     * @return the frame of the page, or null if the lookup should be retried
+     */
+    private Frame load(PageId pid, ScanHint hint, boolean pin) throws DbException {
+        PageLoad mine = new PageLoad();
+        PageLoad inFlight = m_loading.putIfAbsent(pid, mine);
+        if (inFlight != null) {
+            Frame frame = inFlight.await();
+            if (frame == null || (pin && !frame.pin()))
+                return null;
+            m_hits.incrementAndGet();
+            m_policy.pageAccessed(pid);
+            return frame;
         }
-        if (m_pages.size() >= numPages)
-        	evictPage();
-        Page pg = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-        m_pages.put(pid, pg);
-        return pg;
+        try {
+            // loaded and published between our lookup and registering the read
+            if (m_frames.containsKey(pid)) {
+                mine.complete(m_frames.get(pid));
+                return null;
+            }
+            m_misses.incrementAndGet();
+            Page pg = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            Frame frame = new Frame(pg);
+            if (pin)
+                frame.pin();
+            install(pid, frame, hint);
+            mine.complete(frame);
+            return frame;
+        } catch (DbException e) {
+            mine.fail(e);
+            throw e;
+        } catch (RuntimeException e) {
+            mine.fail(e);
+            throw e;
+        } catch (Error e) {
+            // waiters must not block forever on a read that died
+            mine.fail(e);
+            throw e;
+        } finally {
+            m_loading.remove(pid, mine);
+        }
+    }
+
+    /** Makes room for a page that was just read and publishes it. */
+    private synchronized void install(PageId pid, Frame frame, ScanHint hint)
+        throws DbException {
+        if (hint != null && m_frames.size() >= numPages)
+            recycle(hint);
+        while (m_frames.size() >= numPages)
+            evictPage();
+        m_frames.put(pid, frame);
+        m_policy.pageLoaded(pid);
+        if (hint != null)
+            hint.add(pid);
+    }
+
+    /**
+     * Creates the hint a sequential scan should pass to getPage.
+     *
+     * @param filePages the number of pages the scan is going to read
+     * @return a new hint, or null if the file is small compared to the pool
+     *   (or scan-resistant mode is off), the pool is too small to read
+     *   pages in ranges, and the scan should use the pool like everybody
+     *   else
+     */
+    public ScanHint newScanHint(int filePages) {
+        int ring = 0;
+        if (m_scanResistant && filePages > numPages / SCAN_RING_THRESHOLD)
+            ring = Math.max(MIN_SCAN_RING_PAGES, numPages / SCAN_RING_FRACTION);
+        // never read ahead more than half the pool
+        int window = Math.min(m_readAheadWindow, numPages / 2);
+        // read-ahead already reads in ranges
+        int range = 1;
+        if (window == 0)
+            range = Math.max(1, Math.min(Math.min(SCAN_RANGE_PAGES, numPages / 4), filePages));
+        if (ring == 0 && window == 0 && range == 1)
+            return null;
+        // the ring has to hold the pages read ahead, or read in one range,
+        // until the scan gets there, the page the scan has pinned, and one
+        // page to recycle
+        if (ring > 0)
+            ring = Math.min(numPages, Math.max(ring, Math.max(window, range - 1) + 2));
+        return new ScanHint(ring, window, range);
+    }
+
+    /**
+     * @return true if the page is in the pool. The answer may be stale by
+     *   the time the caller acts on it.
+     */
+    public boolean isCached(PageId pid) {
+        return m_frames.containsKey(pid);
+    }
+
+    /**
+     * Reads consecutive pages of one file into the pool on behalf of the
+     * scan owning hint, and returns once they are in. Pages that are
+     * resident or being read by somebody else are skipped; the rest is read
+     * in as few readPages calls as possible. Errors are ignored: the scan
+     * runs into them again when it asks for the page itself.
+     *
+     * @param pids the IDs of the pages to read, in page number order
+     * @param hint the hint of the scan that will want the pages
+     */
+    public void loadPages(PageId[] pids, ScanHint hint) {
+        int i = 0;
+        while (i < pids.length)
+            i = loadRange(pids, i, hint);
+    }
+
+    /**
+     * Sets the number of pages read ahead of sequential scans; 0 turns
+     * read-ahead off. Only affects scans that start afterwards.
+     */
+    public void setReadAheadWindow(int pages) {
+        if (pages < 0)
+            throw new IllegalArgumentException("negative read-ahead window");
+        m_readAheadWindow = pages;
+    }
+
+    /** @return the number of pages read ahead of sequential scans */
+    public int getReadAheadWindow() {
+        return m_readAheadWindow;
+    }
+
+    /**
+     * Asks for consecutive pages of one file to be read into the pool in the
+     * background, on behalf of the scan owning hint. Pages that are resident
+     * or already being read are skipped; the rest is read in as few ranges
+     * as possible. Callers that ask for a page while its range is being read
+     * wait for that read. Errors are ignored: the scan runs into them again
+     * when it asks for the page itself. A page read ahead counts as a miss,
+     * and the scan's later request for it as a hit.
+     *
+     * @param pids the IDs of the pages to read, in page number order
+     * @param hint the hint of the scan that will want the pages
+     */
+    public void prefetchPages(final PageId[] pids, final ScanHint hint) {
+        prefetcher().execute(new Runnable() {
+            public void run() {
+                loadPages(pids, hint);
+            }
+        });
+    }
+
+    /**
+     * Reads the longest run of missing pages starting at pids[from] with a
+     * single readPages call and installs them.
+     * @return the index of the first page after the run
+     */
+    private int loadRange(PageId[] pids, int from, ScanHint hint) {
+        ArrayList<PageLoad> mine = new ArrayList<PageLoad>();
+        int end = from;
+        while (end < pids.length) {
+            PageId pid = pids[end];
+            if (m_frames.containsKey(pid))
+                break;
+            PageLoad load = new PageLoad();
+            if (m_loading.putIfAbsent(pid, load) != null)
+                break;
+            // loaded and published between our lookup and registering the read
+            if (m_frames.containsKey(pid)) {
+                load.complete(m_frames.get(pid));
+                m_loading.remove(pid, load);
+                break;
+            }
+            mine.add(load);
+            end++;
+        }
+        if (mine.isEmpty())
+            return from + 1;
+        int done = 0;
+        try {
+            Page[] pages = Database.getCatalog().getDatabaseFile(pids[from].getTableId())
+                .readPages(pids[from], end - from);
+            m_misses.addAndGet(pages.length);
+            for (; done < pages.length; done++) {
+                Frame frame = new Frame(pages[done]);
+                install(pids[from + done], frame, hint);
+                mine.get(done).complete(frame);
+            }
+        } catch (Exception e) {
+            // the scan reports it when it reads the page itself
+        } finally {
+            // waiters on pages that were not installed retry on their own
+            for (int i = 0; i < mine.size(); i++) {
+                if (i >= done)
+                    mine.get(i).complete(null);
+                m_loading.remove(pids[from + i], mine.get(i));
+            }
+        }
+        return end;
+    }
+
+    /**
+     * @return the executor running read-ahead. It has at most one daemon
+     *   thread, so prefetches are issued in the order the scan wants them,
+     *   and the thread exits when there is nothing to read.
+     */
+    private synchronized ThreadPoolExecutor prefetcher() {
+        if (m_prefetcher == null) {
+            m_prefetcher = new ThreadPoolExecutor(0, 1,
+                    PREFETCH_KEEP_ALIVE, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "BufferPool read-ahead");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        }
+        return m_prefetcher;
+    }
+
+    /**
+     * Turns scan-resistant mode on or off; it is on by default.
+     * Only affects scans that start afterwards.
+     */
+    public void setScanResistant(boolean scanResistant) {
+        m_scanResistant = scanResistant;
+    }
+
+    /** @return true if large sequential scans recycle their own frames */
+    public boolean isScanResistant() {
+        return m_scanResistant;
+    }
+
+    /** @return the replacement policy of this buffer pool */
+    public PageReplacementPolicy getReplacementPolicy() {
+        return m_policy;
+    }
+
+    /** @return the number of getPage calls served from the pool */
+    public long getHitCount() {
+        return m_hits.get();
+    }
+
+    /** @return the number of getPage calls that had to read from disk */
+    public long getMissCount() {
+        return m_misses.get();
+    }
+
+    /** @return the number of pages evicted to make room for others */
+    public long getEvictionCount() {
+        return m_evictions.get();
+    }
+
+    /** Reset the hit, miss and eviction counters to zero. */
+    public void resetStats() {
+        m_hits.set(0);
+        m_misses.set(0);
+        m_evictions.set(0);
     }
 
     /**
@@ -137,6 +584,8 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        cacheDirtyPages(tid, file.insertTuple(tid, t));
     }
 
     /**
@@ -155,6 +604,30 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new DbException("tuple is not stored on any page");
+        DbFile file = Database.getCatalog().getDatabaseFile(rid.getPageId().getTableId());
+        cacheDirtyPages(tid, file.deleteTuple(tid, t));
+    }
+
+    /**
+     * Marks the pages an update touched as dirty, and makes sure the pool
+     * holds these versions of the pages.
+     */
+    private synchronized void cacheDirtyPages(TransactionId tid, ArrayList<Page> pages)
+        throws DbException {
+        for (Page p : pages) {
+            p.markDirty(true, tid);
+            Frame frame = m_frames.get(p.getId());
+            if (frame == null) {
+                install(p.getId(), new Frame(p), null);
+            } else if (frame.page != p) {
+                // the file returned its own copy: put it in the frame, which
+                // keeps the pins of the cached one
+                frame.page = p;
+            }
+        }
     }
 
     /**
@@ -165,7 +638,8 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-
+        for (PageId pid : m_frames.keySet())
+            flushPage(pid);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -176,6 +650,11 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // only necessary for lab5
+        Frame frame = m_frames.remove(pid);
+        if (frame != null) {
+            frame.pins.set(-1);
+            m_policy.pageRemoved(pid);
+        }
     }
 
     /**
@@ -185,6 +664,11 @@ public class BufferPool {
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
+        Frame frame = m_frames.get(pid);
+        if (frame == null || frame.page.isDirty() == null)
+            return;
+        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(frame.page);
+        frame.page.markDirty(false, null);
     }
 
     /** Write all pages of the specified transaction to disk.
@@ -197,10 +681,63 @@ public class BufferPool {
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * The victim is chosen by the replacement policy among the clean,
+     * unpinned pages, so that uncommitted changes never reach the disk
+     * (NO STEAL).
+     *
+     * @throws DbException if every page in the pool is dirty or pinned
      */
     private synchronized  void evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
+        while (true) {
+            PageId victim = m_policy.chooseVictim(m_evictable);
+            if (victim == null)
+                throw new DbException("all pages in the buffer pool are dirty or pinned");
+            // the victim may have been pinned since it was chosen
+            if (removePage(victim))
+                return;
+        }
+    }
+
+    /**
+     * Gives up the frame of the oldest page a scan read that is still
+     * resident and may be evicted. If there is none, the caller falls back
+     * to evictPage().
+     */
+    private synchronized void recycle(ScanHint hint) throws DbException {
+        // the oldest pages may still be pinned by the scan; give up the
+        // oldest one that is not rather than a page of somebody else
+        for (int i = 0; i < hint.getRingSize(); i++) {
+            PageId old = hint.recycleCandidate(i);
+            if (old == null)
+                return;
+            if (m_evictable.isEvictable(old) && removePage(old)) {
+                hint.remove(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Evicts an unpinned page.
+     * @return false if the page got pinned and has to stay
+     */
+    private synchronized boolean removePage(PageId pid) throws DbException {
+        Frame frame = m_frames.get(pid);
+        if (frame == null || !frame.pins.compareAndSet(0, -1))
+            return false;
+        try {
+            flushPage(pid);
+        } catch (IOException e) {
+            frame.pins.set(0);
+            throw new DbException("could not flush page " + pid.pageNumber()
+                    + " of table " + pid.getTableId() + ": " + e.getMessage());
+        }
+        m_frames.remove(pid);
+        m_policy.pageRemoved(pid);
+        m_evictions.incrementAndGet();
+        return true;
     }
 
 }
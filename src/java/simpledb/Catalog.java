@@ -150,6 +150,21 @@ public class Catalog {
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * <p>
+     * Each line has the format <tt>name (field type [pk], ...) [options]</tt>.
+     * Supported options:
+     * <ul>
+     * <li><tt>mmap</tt>: read the table's pages through a memory mapping
+     * <li><tt>pax</tt>: the table's pages are in the PAX layout (see PaxPage)
+     * <li><tt>slotted</tt>: the table's pages hold variable-length records
+     *     (see SlottedPage)
+     * <li><tt>compressed</tt>: the table's pages are stored compressed (see
+     *     CompressedHeapFile); cannot be memory-mapped
+     * <li><tt>encoded</tt>: the table is read-only and its columns are
+     *     encoded (see EncodedPage)
+     * </ul>
+     * At most one of <tt>pax</tt>, <tt>slotted</tt>, <tt>compressed</tt>
+     * and <tt>encoded</tt> may be given.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -164,6 +179,31 @@ public class Catalog {
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
                 String[] els = fields.split(",");
+                boolean mapped = false;
+                String format = "heap";
+                for (String opt : line.substring(line.indexOf(")") + 1).trim().split("\\s+")) {
+                    if (opt.length() == 0)
+                        continue;
+                    if (opt.toLowerCase().equals("mmap"))
+                        mapped = true;
+                    else if (opt.toLowerCase().equals("pax")
+                             || opt.toLowerCase().equals("slotted")
+                             || opt.toLowerCase().equals("compressed")
+                             || opt.toLowerCase().equals("encoded")) {
+                        if (!format.equals("heap")) {
+                            System.out.println("Conflicting storage options " + format + " and " + opt);
+                            System.exit(0);
+                        }
+                        format = opt.toLowerCase();
+                    } else {
+                        System.out.println("Unknown storage option " + opt);
+                        System.exit(0);
+                    }
+                }
+                if (mapped && format.equals("compressed")) {
+                    System.out.println("Compressed tables cannot be memory-mapped: " + name);
+                    System.exit(0);
+                }
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
@@ -190,7 +230,18 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File tabFile = new File(baseFolder+"/"+name + ".dat");
+                HeapFile tabHf;
+                if (format.equals("pax"))
+                    tabHf = new PaxHeapFile(tabFile, t, mapped);
+                else if (format.equals("slotted"))
+                    tabHf = new SlottedHeapFile(tabFile, t, mapped);
+                else if (format.equals("compressed"))
+                    tabHf = new CompressedHeapFile(tabFile, t);
+                else if (format.equals("encoded"))
+                    tabHf = new EncodedHeapFile(tabFile, t, mapped);
+                else
+                    tabHf = new HeapFile(tabFile, t, mapped);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -0,0 +1,95 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CLOCK (second chance) page replacement.
+ * <p>
+ * Every resident page occupies a frame on a circular list and has a
+ * reference bit that is set whenever the page is loaded or hit. To find a
+ * victim the clock hand sweeps the frames: a page whose bit is set gets a
+ * second chance (the bit is cleared), the first evictable page with a clear
+ * bit is chosen.
+ * <p>
+ * Hits only set a reference bit, so pageAccessed needs no lock; a bit that
+ * is lost to a concurrent sweep merely costs that page its second chance.
+ */
+public class ClockReplacementPolicy implements PageReplacementPolicy {
+
+    private static final int INITIAL_FRAMES = 16;
+
+    private volatile PageId[] m_frames;
+    private volatile boolean[] m_referenced;
+    /** number of frames ever handed out; the hand sweeps [0, m_used) */
+    private int m_used;
+    private int m_hand;
+    private final ConcurrentHashMap<PageId, Integer> m_slots;
+    private final ArrayDeque<Integer> m_free;
+
+    public ClockReplacementPolicy() {
+        m_frames = new PageId[INITIAL_FRAMES];
+        m_referenced = new boolean[INITIAL_FRAMES];
+        m_used = 0;
+        m_hand = 0;
+        m_slots = new ConcurrentHashMap<PageId, Integer>();
+        m_free = new ArrayDeque<Integer>();
+    }
+
+    public void pageLoaded(PageId pid) {
+        if (m_slots.containsKey(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        int slot;
+        if (!m_free.isEmpty()) {
+            slot = m_free.pop();
+        } else {
+            if (m_used == m_frames.length) {
+                m_referenced = Arrays.copyOf(m_referenced, m_used * 2);
+                m_frames = Arrays.copyOf(m_frames, m_used * 2);
+            }
+            slot = m_used++;
+        }
+        m_frames[slot] = pid;
+        m_referenced[slot] = true;
+        m_slots.put(pid, slot);
+    }
+
+    public void pageAccessed(PageId pid) {
+        Integer slot = m_slots.get(pid);
+        if (slot != null)
+            m_referenced[slot] = true;
+    }
+
+    public void pageRemoved(PageId pid) {
+        Integer slot = m_slots.remove(pid);
+        if (slot == null)
+            return;
+        m_frames[slot] = null;
+        m_referenced[slot] = false;
+        m_free.push(slot);
+    }
+
+    public PageId chooseVictim(Candidates candidates) {
+        // two full turns: the first may only clear reference bits
+        for (int i = 0; i < 2 * m_used; i++) {
+            int slot = m_hand;
+            m_hand = (m_hand + 1) % m_used;
+            PageId pid = m_frames[slot];
+            if (pid == null || !candidates.isEvictable(pid))
+                continue;
+            if (m_referenced[slot]) {
+                m_referenced[slot] = false;
+                continue;
+            }
+            return pid;
+        }
+        return null;
+    }
+
+    public String toString() {
+        return "CLOCK";
+    }
+}
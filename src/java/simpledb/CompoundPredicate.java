@@ -0,0 +1,184 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * CompoundPredicate is the base of AndPredicate and OrPredicate. It keeps
+ * its terms in the order it evaluates them and, as tuples go by, counts
+ * how many each term sees and passes. Every REORDER_INTERVAL tuples the
+ * terms are sorted again by their estimated cost and observed selectivity,
+ * so the term most likely to settle the outcome cheaply runs first. The
+ * counts are then halved, so that the order follows changes in the data.
+ * <p>
+ * A predicate may be shared by scans in several threads. The order is
+ * never changed in place: a sorted copy replaces it, and every evaluation
+ * runs over the order it read once. The counts are only hints and are not
+ * synchronized; counts lost to a race shift the order a little, never
+ * the outcome.
+ */
+abstract class CompoundPredicate extends Predicate {
+
+    private static final long serialVersionUID = 1L;
+
+    /** number of tuples evaluated between two reorderings */
+    static final int REORDER_INTERVAL = 1024;
+
+    /** a term with the counts observed for it */
+    static class Term implements java.io.Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final Predicate m_pred;
+        final double m_cost;
+        long m_seen;
+        long m_passed;
+
+        Term(Predicate p) {
+            m_pred = p;
+            m_cost = p.cost();
+        }
+
+        /** @return the observed fraction of tuples the term passes */
+        double selectivity() {
+            return (m_passed + 1.0) / (m_seen + 2.0);
+        }
+    }
+
+    /** the terms, as given */
+    private final Predicate[] m_given;
+    /** the terms, in evaluation order; replaced, never changed */
+    volatile Term[] m_terms;
+    private final double m_cost;
+    private long m_evaluated;
+
+    CompoundPredicate(Predicate... terms) {
+        super(-1);
+        if (terms.length == 0)
+            throw new IllegalArgumentException("no terms");
+        m_given = terms.clone();
+        Term[] order = new Term[terms.length];
+        double cost = 0;
+        for (int i = 0; i < terms.length; i++) {
+            order[i] = new Term(terms[i]);
+            cost += order[i].m_cost;
+        }
+        m_terms = order;
+        m_cost = cost;
+    }
+
+    /** @return the terms, in the order given to the constructor */
+    public Predicate[] getTerms() {
+        return m_given.clone();
+    }
+
+    /** @return the terms, in the order they are evaluated now */
+    Predicate[] evaluationOrder() {
+        Term[] order = m_terms;
+        Predicate[] terms = new Predicate[order.length];
+        for (int i = 0; i < terms.length; i++)
+            terms[i] = order[i].m_pred;
+        return terms;
+    }
+
+    public Predicate bind(TupleDesc td) {
+        for (Term t : m_terms)
+            t.m_pred.bind(td);
+        return this;
+    }
+
+    double cost() {
+        return m_cost;
+    }
+
+    /**
+     * @return the rank of a term; terms are evaluated in increasing order
+     *   of rank
+     */
+    abstract double rank(Term t);
+
+    /**
+     * Records that n more tuples were evaluated, and sorts the terms again
+     * when enough were. The ranks are taken once before sorting, since
+     * other threads keep counting meanwhile.
+     */
+    void evaluated(int n) {
+        m_evaluated += n;
+        if (m_evaluated < REORDER_INTERVAL)
+            return;
+        m_evaluated = 0;
+        Term[] order = m_terms.clone();
+        double[] ranks = new double[order.length];
+        for (int i = 0; i < order.length; i++)
+            ranks[i] = rank(order[i]);
+        // an insertion sort, stable and quick for the few terms there are
+        for (int i = 1; i < order.length; i++) {
+            Term t = order[i];
+            double r = ranks[i];
+            int j = i - 1;
+            while (j >= 0 && ranks[j] > r) {
+                order[j + 1] = order[j];
+                ranks[j + 1] = ranks[j];
+                j--;
+            }
+            order[j + 1] = t;
+            ranks[j + 1] = r;
+        }
+        for (Term t : order) {
+            t.m_seen >>= 1;
+            t.m_passed >>= 1;
+        }
+        m_terms = order;
+    }
+
+    /**
+     * Evaluates p on tuple t, or if t is null on the tuple in slot of page,
+     * whose bytes are data.
+     */
+    static boolean test(Predicate p, Tuple t, HeapPage page, ByteBuffer data, int slot) {
+        return t != null ? p.filter(t) : p.filter(page, data, slot);
+    }
+
+    public boolean filter(Tuple t) {
+        return eval(t, null, null, 0);
+    }
+
+    boolean filter(HeapPage page, ByteBuffer data, int slot) {
+        return eval(null, page, data, slot);
+    }
+
+    /** @return the outcome for the tuple described as for test */
+    abstract boolean eval(Tuple t, HeapPage page, ByteBuffer data, int slot);
+
+    /** @return a copy of the first n entries of the selection of b */
+    static int[] selection(TupleBatch b) {
+        return Arrays.copyOf(b.getSelection(), b.numSelected());
+    }
+
+    /**
+     * @return the number of rows of a, of length na, that are not among
+     *   the na rows of b, of length nb; they are moved to the front of a.
+     *   Both must be in increasing order.
+     */
+    static int minus(int[] a, int na, int[] b, int nb) {
+        int n = 0;
+        int j = 0;
+        for (int i = 0; i < na; i++) {
+            while (j < nb && b[j] < a[i])
+                j++;
+            if (j < nb && b[j] == a[i])
+                continue;
+            a[n++] = a[i];
+        }
+        return n;
+    }
+
+    String toString(String conjunction) {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < m_given.length; i++) {
+            if (i > 0)
+                sb.append(' ').append(conjunction).append(' ');
+            sb.append(m_given[i]);
+        }
+        return sb.append(')').toString();
+    }
+}
@@ -0,0 +1,490 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedHeapFile is a HeapFile that stores every page compressed with
+ * Deflater, meant for cold tables that are mostly scanned. Pages are
+ * compressed when they are written and inflated when they are read into
+ * the buffer pool, so a page in memory is an ordinary HeapPage.
+ * <p>
+ * Compressed pages have different lengths, so they are not found by page
+ * number alone. A page index in a sidecar file (table.idx for table.dat)
+ * holds, for every page, the offset of its compressed bytes in the data
+ * file, their length and the room reserved for them, as a long and two
+ * ints. A page that does not get smaller by compressing it is stored as
+ * it is, with length equal to the page size.
+ * <p>
+ * A page that is written again is never overwritten in place: the new
+ * bytes go to space no page uses, are forced to disk, and only then is
+ * the index entry switched to them and forced as well. A crash at any
+ * point leaves the index pointing at a complete version of every page.
+ * The space of the old version is reused by later writes; the free
+ * extents are kept in memory and found again from the index when the
+ * file is opened. A page put in a free extent only a little larger than
+ * it takes the whole extent as its room, so that no sliver too small for
+ * any page is left behind.
+ *
+ * @see HeapFile
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    /** bytes of one page index entry */
+    private static final int ENTRY_SIZE = 16;
+    /**
+     * a free extent is handed out whole rather than leave less than this
+     * of it, too little for any page to use
+     */
+    private static final int MIN_EXTENT = 32;
+
+    private final File m_indexFile;
+    /** the page index, loaded on first use; guarded by this */
+    private long[] m_offsets;
+    private int[] m_lengths;
+    private int[] m_room;
+    private int m_count = -1;
+    /** where the next appended page goes; guarded by this */
+    private long m_dataEnd;
+    /** extents of the data file before m_dataEnd that no page uses, by offset; guarded by this */
+    private TreeMap<Long, Integer> m_free;
+    private RandomAccessFile m_indexRaf;
+    private FileChannel m_indexChannel;
+
+    /** compresses pages being written; guarded by this */
+    private final Deflater m_deflater = new Deflater();
+    private byte[] m_compressed;
+    private final ThreadLocal<Inflater> m_inflater = new ThreadLocal<Inflater>() {
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    /**
+     * Constructs a compressed heap file backed by the specified file. The
+     * page index is kept in indexFile(f).
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        super(f, td, false);
+        m_indexFile = indexFile(f);
+    }
+
+    /**
+     * @return the sidecar file holding the page index of the compressed
+     *   heap file stored in f
+     */
+    public static File indexFile(File f) {
+        String name = f.getPath();
+        if (name.endsWith(".dat"))
+            name = name.substring(0, name.length() - ".dat".length());
+        return new File(name + ".idx");
+    }
+
+    /** Loads the page index, if that has not been done yet. */
+    private synchronized void loadIndex() throws IOException {
+        if (m_count >= 0)
+            return;
+        m_indexRaf = new RandomAccessFile(m_indexFile, getFile().canWrite() ? "rw" : "r");
+        m_indexChannel = m_indexRaf.getChannel();
+        long dataLength = getFile().length();
+        int count = (int) (m_indexChannel.size() / ENTRY_SIZE);
+        if (dataLength == 0) {
+            // a new table; an index left over from an old one is stale
+            count = 0;
+            if (m_indexChannel.size() > 0)
+                m_indexChannel.truncate(0);
+        } else if (count == 0) {
+            throw new IOException("missing page index " + m_indexFile);
+        }
+        m_offsets = new long[Math.max(16, count)];
+        m_lengths = new int[m_offsets.length];
+        m_room = new int[m_offsets.length];
+        ByteBuffer buf = ByteBuffer.allocate(count * ENTRY_SIZE);
+        while (buf.hasRemaining() && m_indexChannel.read(buf, buf.position()) >= 0)
+            ;
+        buf.flip();
+        for (int pg = 0; pg < count; pg++) {
+            m_offsets[pg] = buf.getLong();
+            m_lengths[pg] = buf.getInt();
+            m_room[pg] = buf.getInt();
+        }
+        m_count = count;
+        m_dataEnd = dataLength;
+        findFreeExtents();
+    }
+
+    /** Collects the extents of the data file between the pages in the index. */
+    private void findFreeExtents() {
+        TreeMap<Long, Integer> used = new TreeMap<Long, Integer>();
+        for (int pg = 0; pg < m_count; pg++)
+            used.put(m_offsets[pg], m_room[pg]);
+        m_free = new TreeMap<Long, Integer>();
+        long at = 0;
+        for (Map.Entry<Long, Integer> e : used.entrySet()) {
+            if (e.getKey() > at)
+                m_free.put(at, (int) (e.getKey() - at));
+            at = Math.max(at, e.getKey() + e.getValue());
+        }
+        if (at < m_dataEnd)
+            m_free.put(at, (int) (m_dataEnd - at));
+    }
+
+    /**
+     * Takes at least len bytes of the data file that no page uses: the
+     * first free extent large enough, or the end of the file. The extent
+     * is taken whole if less than MIN_EXTENT bytes of it would be left.
+     * @return the offset of the space and the room taken
+     */
+    private long[] allocate(int len) {
+        for (Map.Entry<Long, Integer> e : m_free.entrySet()) {
+            if (e.getValue() >= len) {
+                long at = e.getKey();
+                int room = e.getValue();
+                m_free.remove(at);
+                if (room - len >= MIN_EXTENT) {
+                    m_free.put(at + len, room - len);
+                    room = len;
+                }
+                return new long[] { at, room };
+            }
+        }
+        long at = m_dataEnd;
+        m_dataEnd += len;
+        return new long[] { at, len };
+    }
+
+    /** Gives back len bytes at offset at, merging them with free neighbours. */
+    private void release(long at, int len) {
+        Map.Entry<Long, Integer> before = m_free.floorEntry(at);
+        if (before != null && before.getKey() + before.getValue() == at) {
+            m_free.remove(before.getKey());
+            at = before.getKey();
+            len += before.getValue();
+        }
+        Integer after = m_free.remove(at + len);
+        if (after != null)
+            len += after;
+        m_free.put(at, len);
+    }
+
+    /**
+     * Returns the number of pages in this file, as recorded in the page
+     * index.
+     */
+    public int numPages() {
+        return refreshNumPages();
+    }
+
+    /**
+     * The page index is the only record of the pages in the file, so there
+     * is nothing to re-read.
+     */
+    public synchronized int refreshNumPages() {
+        try {
+            loadIndex();
+        } catch (IOException e) {
+            throw new IllegalStateException("could not read page index of "
+                    + getFile() + ": " + e.getMessage());
+        }
+        return m_count;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        Page[] pages = readPages(pid, 1);
+        return pages[0];
+    }
+
+    /**
+     * Reads pages with as few reads as possible: the compressed bytes of
+     * pages stored next to each other in the data file are read at once.
+     */
+    public Page[] readPages(PageId first, int count) {
+        HeapPageId hpid = (HeapPageId) first;
+        int pgNo = hpid.pageNumber();
+        long[] offsets;
+        int[] lengths;
+        int[] room;
+        synchronized (this) {
+            int n = Math.min(count, numPages() - pgNo);
+            if (pgNo < 0 || n <= 0)
+                throw new IllegalArgumentException("Page out of bound");
+            offsets = new long[n];
+            lengths = new int[n];
+            room = new int[n];
+            System.arraycopy(m_offsets, pgNo, offsets, 0, n);
+            System.arraycopy(m_lengths, pgNo, lengths, 0, n);
+            System.arraycopy(m_room, pgNo, room, 0, n);
+        }
+        try {
+            ArrayList<Page> pages = new ArrayList<Page>(offsets.length);
+            int i = 0;
+            while (i < offsets.length) {
+                // find the run of pages stored one after the other
+                int j = i + 1;
+                while (j < offsets.length && offsets[j] == offsets[j - 1] + room[j - 1])
+                    j++;
+                long end = offsets[j - 1] + lengths[j - 1];
+                ByteBuffer buf = ByteBuffer.allocate((int) (end - offsets[i]));
+                if (!read(buf, offsets[i]))
+                    throw new IllegalArgumentException("Page out of bound");
+                for (int k = i; k < j; k++) {
+                    int at = (int) (offsets[k] - offsets[i]);
+                    byte[] data = inflate(buf.array(), at, lengths[k]);
+                    pages.add(createPage(new HeapPageId(getId(), pgNo + k), ByteBuffer.wrap(data)));
+                }
+                i = j;
+            }
+            return pages.toArray(new Page[pages.size()]);
+        } catch (FileNotFoundException e) {
+            throw new IllegalArgumentException("No such file: " + getFile());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Page out of bound");
+        }
+    }
+
+    /** @return the page stored in len bytes of src, from index off on */
+    private byte[] inflate(byte[] src, int off, int len) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        byte[] data = new byte[pageSize];
+        if (len == pageSize) {
+            // stored as it is
+            System.arraycopy(src, off, data, 0, len);
+            return data;
+        }
+        Inflater inflater = m_inflater.get();
+        inflater.reset();
+        inflater.setInput(src, off, len);
+        try {
+            int n = 0;
+            while (n < pageSize && !inflater.finished()) {
+                int got = inflater.inflate(data, n, pageSize - n);
+                if (got == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                n += got;
+            }
+            if (n != pageSize || !inflater.finished())
+                throw new IOException("corrupt compressed page");
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt compressed page: " + e.getMessage());
+        }
+        return data;
+    }
+
+    /**
+     * Compresses a serialized page into m_compressed.
+     * @return the number of bytes to store; the page size if the page is
+     *   stored as it is
+     */
+    private int compress(byte[] data, int off) {
+        int pageSize = BufferPool.getPageSize();
+        if (m_compressed == null || m_compressed.length != pageSize)
+            m_compressed = new byte[pageSize];
+        return compress(m_deflater, data, off, pageSize, m_compressed);
+    }
+
+    /**
+     * Compresses the page of pageSize bytes in data, from index off on,
+     * into out, which holds at least pageSize bytes.
+     * @return the number of bytes to store; pageSize if the page is
+     *   stored as it is
+     */
+    private static int compress(Deflater deflater, byte[] data, int off,
+                                int pageSize, byte[] out) {
+        deflater.reset();
+        deflater.setInput(data, off, pageSize);
+        deflater.finish();
+        int n = 0;
+        while (!deflater.finished() && n < pageSize)
+            n += deflater.deflate(out, n, pageSize - n);
+        if (!deflater.finished() || n >= pageSize) {
+            System.arraycopy(data, off, out, 0, pageSize);
+            return pageSize;
+        }
+        return n;
+    }
+
+    /**
+     * Compresses the pages of a file in the HeapFile format into a new
+     * compressed heap file f and its page index, with the pages stored one
+     * after the other.
+     *
+     * @param heapFile the file holding the pages, pageSize bytes each
+     */
+    static void compressFile(File heapFile, File f, int pageSize) throws IOException {
+        Deflater deflater = new Deflater();
+        byte[] page = new byte[pageSize];
+        byte[] compressed = new byte[pageSize];
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(heapFile)));
+        OutputStream data = new BufferedOutputStream(new FileOutputStream(f));
+        DataOutputStream index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile(f))));
+        try {
+            long offset = 0;
+            long pages = heapFile.length() / pageSize;
+            for (long pg = 0; pg < pages; pg++) {
+                in.readFully(page);
+                int len = compress(deflater, page, 0, pageSize, compressed);
+                data.write(compressed, 0, len);
+                index.writeLong(offset);
+                index.writeInt(len);
+                index.writeInt(len);
+                offset += len;
+            }
+        } finally {
+            in.close();
+            data.close();
+            index.close();
+            deflater.end();
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        byte[] data = page.getPageData();
+        synchronized (this) {
+            loadIndex();
+            int pgNo = page.getId().pageNumber();
+            // pages skipped over are stored empty
+            if (m_count < pgNo) {
+                byte[] empty = HeapPage.createEmptyPageData();
+                while (m_count < pgNo)
+                    store(m_count, empty, 0);
+            }
+            store(pgNo, data, 0);
+            pageWritten(page);
+        }
+    }
+
+    /**
+     * Compresses the page in data, from index off on, and stores it as
+     * page pgNo, which is at most one past the last page. The page goes to
+     * free space and is forced before its index entry is switched to it;
+     * the space of the old version is only freed after that.
+     */
+    private void store(int pgNo, byte[] data, int off) throws IOException {
+        int len = compress(data, off);
+        long[] extent = allocate(len);
+        long at = extent[0];
+        int room = (int) extent[1];
+        ByteBuffer buf = ByteBuffer.wrap(m_compressed, 0, len);
+        try {
+            FileChannel ch = channel(true);
+            while (buf.hasRemaining())
+                ch.write(buf, at + buf.position());
+            ch.force(true);
+        } catch (IOException e) {
+            release(at, room);
+            throw e;
+        }
+        boolean replaced = pgNo < m_count;
+        long oldAt = replaced ? m_offsets[pgNo] : 0;
+        int oldRoom = replaced ? m_room[pgNo] : 0;
+        setEntry(pgNo, at, len, room);
+        writeEntries(pgNo, 1);
+        m_indexChannel.force(true);
+        if (replaced)
+            release(oldAt, oldRoom);
+    }
+
+    /** Records where page pgNo is in the index in memory. */
+    private void setEntry(int pgNo, long offset, int len, int room) {
+        if (pgNo >= m_offsets.length) {
+            int size = Math.max(pgNo + 1, m_offsets.length * 2);
+            long[] offsets = new long[size];
+            int[] lengths = new int[size];
+            int[] rooms = new int[size];
+            System.arraycopy(m_offsets, 0, offsets, 0, m_count);
+            System.arraycopy(m_lengths, 0, lengths, 0, m_count);
+            System.arraycopy(m_room, 0, rooms, 0, m_count);
+            m_offsets = offsets;
+            m_lengths = lengths;
+            m_room = rooms;
+        }
+        m_offsets[pgNo] = offset;
+        m_lengths[pgNo] = len;
+        m_room[pgNo] = room;
+        if (pgNo >= m_count)
+            m_count = pgNo + 1;
+    }
+
+    /** Writes the index entries of count pages from page first on. */
+    private void writeEntries(int first, int count) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(count * ENTRY_SIZE);
+        for (int pg = first; pg < first + count; pg++) {
+            buf.putLong(m_offsets[pg]);
+            buf.putInt(m_lengths[pg]);
+            buf.putInt(m_room[pg]);
+        }
+        buf.flip();
+        long at = (long) first * ENTRY_SIZE;
+        while (buf.hasRemaining())
+            m_indexChannel.write(buf, at + buf.position());
+    }
+
+    /**
+     * Compresses the pages of a bulk load and appends them to the data
+     * file with one write, followed by one write of their index entries.
+     * The index in memory only takes the new pages once their bytes are
+     * on disk, so a failed write leaves it as it was.
+     */
+    void appendPages(ByteBuffer pages, int first, int count) throws IOException {
+        loadIndex();
+        int pageSize = BufferPool.getPageSize();
+        byte[] data = new byte[pageSize];
+        if (first != m_count) {
+            for (int i = 0; i < count; i++) {
+                pages.get(data);
+                store(first + i, data, 0);
+            }
+            return;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(count * pageSize / 2);
+        int[] lengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            pages.get(data);
+            lengths[i] = compress(data, 0);
+            out.write(m_compressed, 0, lengths[i]);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(out.toByteArray());
+        FileChannel ch = channel(true);
+        while (buf.hasRemaining())
+            ch.write(buf, m_dataEnd + buf.position());
+        // the pages must be on disk before index entries point at them
+        ch.force(true);
+        long at = m_dataEnd;
+        for (int i = 0; i < count; i++) {
+            setEntry(first + i, at, lengths[i], lengths[i]);
+            at += lengths[i];
+        }
+        m_dataEnd = at;
+        writeEntries(first, count);
+    }
+
+    /** Forces the page index as well as the data file. */
+    synchronized void forceAppended() throws IOException {
+        super.forceAppended();
+        if (m_indexChannel != null)
+            m_indexChannel.force(true);
+    }
+
+    /**
+     * Closes the data file and the page index. The file stays usable; both
+     * are reopened when needed.
+     */
+    public synchronized void close() throws IOException {
+        super.close();
+        if (m_indexRaf != null) {
+            m_indexRaf.close();
+            m_indexRaf = null;
+            m_indexChannel = null;
+            m_count = -1;
+        }
+    }
+}
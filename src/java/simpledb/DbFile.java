@@ -19,6 +19,18 @@ public interface DbFile {
      */
     public Page readPage(PageId id);
 
+    /**
+     * Read a range of consecutive pages from disk, with as few I/O calls as
+     * possible.
+     *
+     * @param first the id of the first page to read
+     * @param count the number of pages to read
+     * @return the pages, in order; fewer than count if the file ends first
+     * @throws IllegalArgumentException if the first page does not exist in
+     *   this file.
+     */
+    public Page[] readPages(PageId first, int count);
+
     /**
      * Push the specified page to disk.
      *
@@ -0,0 +1,41 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * EncodedHeapFile is a read-only HeapFile of EncodedPages, whose columns
+ * are stored dictionary or run-length encoded. The files are written by
+ * HeapFileEncoder.convertEncoded.
+ *
+ * @see EncodedPage
+ */
+public class EncodedHeapFile extends HeapFile {
+
+    public EncodedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /** @see HeapFile#HeapFile(File, TupleDesc, boolean) */
+    public EncodedHeapFile(File f, TupleDesc td, boolean mapped) {
+        super(f, td, mapped);
+    }
+
+    HeapPage createPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        return new EncodedPage(pid, data);
+    }
+
+    /** @throws DbException always; encoded files are read-only */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException {
+        throw new DbException("encoded files are read-only");
+    }
+
+    /** @throws DbException always; encoded files are read-only */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException {
+        throw new DbException("encoded files are read-only");
+    }
+}
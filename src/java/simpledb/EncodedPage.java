@@ -0,0 +1,444 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * EncodedPage is a read-only HeapPage whose columns are stored encoded.
+ * Pages of this format are written by HeapFileEncoder and read through
+ * EncodedHeapFile.
+ * <p>
+ * The page starts with an int count of tuples, followed by one block per
+ * field. A block starts with a byte telling its encoding:
+ * <ul>
+ * <li>PLAIN: the value of every tuple.
+ * <li>RUN_LENGTH (int fields): an int count of runs, then an int value and
+ *     an int length for every run of equal values.
+ * <li>DICTIONARY (string fields): an unsigned short count of distinct
+ *     values, the values, then the code of every tuple: its index in the
+ *     dictionary, as one byte if there are at most 256 values and as an
+ *     unsigned short otherwise.
+ * </ul>
+ * An int value takes 4 bytes and a string value one length byte plus its
+ * characters. The rest of the page is zero, so an all-zero page is an
+ * empty page.
+ * <p>
+ * In memory every column is kept the same way: the distinct Field objects
+ * of the column (values for PLAIN, runs for RUN_LENGTH, the dictionary for
+ * DICTIONARY) and the index of the value of every tuple. Tuples share the
+ * Field objects, and filter() compares each distinct value only once.
+ * <p>
+ * A predicate pushed down into a scan is treated the same way when it
+ * tests a single field: it is evaluated once per distinct value, and the
+ * outcome is looked up by the code of each slot. The outcomes of the last
+ * predicate are kept with the page. Scans copy rows into batches straight
+ * from the column values; only predicates over several fields fall back
+ * to creating the tuples.
+ *
+ * @see HeapFileEncoder#convertEncoded
+ * @see EncodedHeapFile
+ */
+public class EncodedPage extends HeapPage {
+
+    static final byte PLAIN = 0;
+    static final byte RUN_LENGTH = 1;
+    static final byte DICTIONARY = 2;
+
+    /** most entries in a dictionary */
+    static final int MAX_DICTIONARY = 0xffff;
+
+    /** the distinct values of each column */
+    private final Field[][] m_values;
+    /** for each column, the index in m_values of the value of each tuple */
+    private final int[][] m_index;
+    /** the outcomes of the last single-field predicate pushed down */
+    private volatile Matches m_matches;
+
+    /** Whether each distinct value of a field passes a predicate. */
+    private static final class Matches {
+        final Predicate m_pred;
+        final boolean[] m_match;
+
+        Matches(Predicate pred, boolean[] match) {
+            m_pred = pred;
+            m_match = match;
+        }
+    }
+
+    /**
+     * Create an EncodedPage from a set of bytes of data read from disk.
+     * @see HeapPage#HeapPage(HeapPageId, byte[])
+     */
+    public EncodedPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create an EncodedPage from a buffer holding the page.
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    public EncodedPage(HeapPageId id, ByteBuffer data) throws IOException {
+        super(id, data, tupleCount(data));
+        ByteBuffer buf = m_data.duplicate();
+        buf.position(4);
+        int fields = td.numFields();
+        m_values = new Field[fields][];
+        m_index = new int[fields][];
+        try {
+            for (int f = 0; f < fields; f++)
+                readColumn(buf, f);
+        } catch (RuntimeException e) {
+            // BufferUnderflowException, or a bad string length
+            throw new IOException("corrupt encoded page: " + e);
+        }
+        for (int i = 0; i < numSlots; i++)
+            markSlotUsed(i, true);
+    }
+
+    private static int tupleCount(ByteBuffer data) throws IOException {
+        if (data.remaining() < BufferPool.getPageSize())
+            throw new IOException("page is too short");
+        int n = data.getInt(data.position());
+        if (n < 0 || n > BufferPool.getPageSize())
+            throw new IOException("corrupt encoded page");
+        return n;
+    }
+
+    private void readColumn(ByteBuffer buf, int f) throws IOException {
+        Type type = td.getFieldType(f);
+        int[] index = new int[numSlots];
+        Field[] values;
+        byte encoding = buf.get();
+        if (encoding == PLAIN) {
+            values = new Field[numSlots];
+            for (int i = 0; i < numSlots; i++) {
+                values[i] = readValue(buf, type);
+                index[i] = i;
+            }
+        } else if (encoding == RUN_LENGTH && type == Type.INT_TYPE) {
+            values = new Field[buf.getInt()];
+            int i = 0;
+            for (int r = 0; r < values.length; r++) {
+                values[r] = new IntField(buf.getInt());
+                int len = buf.getInt();
+                if (len < 0 || i + len > numSlots)
+                    throw new IOException("corrupt run length");
+                Arrays.fill(index, i, i + len, r);
+                i += len;
+            }
+            if (i != numSlots)
+                throw new IOException("corrupt run length");
+        } else if (encoding == DICTIONARY) {
+            values = new Field[buf.getShort() & 0xffff];
+            for (int k = 0; k < values.length; k++)
+                values[k] = readValue(buf, type);
+            boolean wide = values.length > 256;
+            for (int i = 0; i < numSlots; i++) {
+                index[i] = wide ? buf.getShort() & 0xffff : buf.get() & 0xff;
+                if (index[i] >= values.length)
+                    throw new IOException("corrupt dictionary code");
+            }
+        } else {
+            throw new IOException("unknown encoding " + encoding);
+        }
+        m_values[f] = values;
+        m_index[f] = index;
+    }
+
+    private static Field readValue(ByteBuffer buf, Type type) {
+        if (type == Type.INT_TYPE)
+            return new IntField(buf.getInt());
+        int len = buf.get() & 0xff;
+        char[] chars = new char[len];
+        for (int c = 0; c < len; c++)
+            chars[c] = (char) (buf.get() & 0xff);
+        return new StringField(new String(chars), Type.STRING_LEN);
+    }
+
+    HeapPage reread(ByteBuffer data) throws IOException {
+        return new EncodedPage(pid, data);
+    }
+
+    Tuple getTuple(int i) {
+        Tuple t = tuples[i];
+        if (t == null && isSlotUsed(i)) {
+            t = new Tuple(td);
+            for (int f = 0; f < m_values.length; f++)
+                t.setField(f, m_values[f][m_index[f][i]]);
+            t.setRecordId(new RecordId(pid, i));
+            tuples[i] = t;
+        }
+        return t;
+    }
+
+    /** Copies slot i into b from the column values, without a Tuple. */
+    void copySlot(TupleBatch b, int i) {
+        int row = b.addRow(pid, i);
+        for (int f = 0; f < m_values.length; f++) {
+            Field v = m_values[f][m_index[f][i]];
+            if (v.getType() == Type.INT_TYPE)
+                b.getIntColumn(f)[row] = ((IntField) v).getValue();
+            else
+                b.getStringColumn(f)[row] = ((StringField) v).getValue();
+        }
+    }
+
+    boolean passes(Predicate pred, int i) {
+        boolean[] match = matches(pred);
+        if (match == null)
+            return pred.filter(getTuple(i));
+        return match[m_index[pred.getField()][i]];
+    }
+
+    int fillBatch(TupleBatch b, int from, Predicate pred) {
+        boolean[] match = pred == null ? null : matches(pred);
+        if (pred != null && match == null)
+            return super.fillBatch(b, from, pred);
+        int[] index = match == null ? null : m_index[pred.getField()];
+        // every slot of an encoded page is used
+        int slot = from;
+        for (; slot < numSlots && !b.isFull(); slot++) {
+            if (match == null || match[index[slot]])
+                copySlot(b, slot);
+        }
+        return slot < numSlots ? slot : -1;
+    }
+
+    /**
+     * @return for each distinct value of the field pred tests, whether it
+     *   passes pred, or null if pred tests more than one field. Each value
+     *   is tested once, on its stored bytes; the outcomes are kept for the
+     *   next call with the same predicate.
+     */
+    private boolean[] matches(Predicate pred) {
+        int f = pred.getField();
+        if (f < 0)
+            return null;
+        Matches m = m_matches;
+        if (m != null && m.m_pred == pred)
+            return m.m_match;
+        Field[] values = m_values[f];
+        boolean[] match = new boolean[values.length];
+        ByteBuffer buf = ByteBuffer.allocate(td.getFieldType(f).getLen());
+        for (int k = 0; k < values.length; k++) {
+            buf.clear();
+            values[k].serialize(buf);
+            match[k] = pred.filter(buf, 0);
+        }
+        m_matches = new Matches(pred, match);
+        return match;
+    }
+
+    /**
+     * @return the slots whose field f compares true against operand. Each
+     *   distinct value of the column (dictionary entry or run) is compared
+     *   once, and the result is spread to the tuples by their codes.
+     */
+    public BitSet filter(int f, Predicate.Op op, Field operand) {
+        Field[] values = m_values[f];
+        int[] index = m_index[f];
+        boolean[] match = new boolean[values.length];
+        for (int k = 0; k < values.length; k++)
+            match[k] = values[k].compare(op, operand);
+        BitSet slots = new BitSet(numSlots);
+        for (int i = 0; i < numSlots; i++) {
+            if (match[index[i]])
+                slots.set(i);
+        }
+        return slots;
+    }
+
+    /** @return the number of distinct values stored for field f */
+    public int getNumValues(int f) {
+        return m_values[f].length;
+    }
+
+    /** @throws DbException always; encoded pages are read-only */
+    public void insertTuple(Tuple t) throws DbException {
+        throw new DbException("encoded pages are read-only");
+    }
+
+    /** @throws DbException always; encoded pages are read-only */
+    public void deleteTuple(Tuple t) throws DbException {
+        throw new DbException("encoded pages are read-only");
+    }
+
+    boolean hasRoomFor(Tuple t) {
+        return false;
+    }
+
+    public int getNumEmptySlots() {
+        return 0;
+    }
+
+    // see Page.java for javadocs
+    public void writePageData(ByteBuffer dst) {
+        // the page cannot change, so it is written as it was read
+        ByteBuffer orig = m_data.duplicate();
+        orig.position(0);
+        orig.limit(BufferPool.getPageSize());
+        dst.put(orig);
+    }
+
+    /**
+     * Encoder collects tuples for one EncodedPage and picks the smallest
+     * encoding of every column. It keeps track of the encoded size as
+     * tuples are added, so that a page is filled as far as it goes.
+     */
+    static class Encoder {
+        private final TupleDesc m_td;
+        private final int m_pageSize;
+        private final ArrayList<Field[]> m_rows = new ArrayList<Field[]>();
+        /** per field: bytes of the values of all rows */
+        private final int[] m_plainBytes;
+        /** per int field: number of runs */
+        private final int[] m_runs;
+        /** per string field: the dictionary, and the bytes of its values */
+        private final ArrayList<HashMap<Field, Integer>> m_dictionary;
+        private final int[] m_dictionaryBytes;
+
+        Encoder(TupleDesc td, int pageSize) {
+            m_td = td;
+            m_pageSize = pageSize;
+            int fields = td.numFields();
+            m_plainBytes = new int[fields];
+            m_runs = new int[fields];
+            m_dictionary = new ArrayList<HashMap<Field, Integer>>(fields);
+            for (int f = 0; f < fields; f++)
+                m_dictionary.add(new HashMap<Field, Integer>());
+            m_dictionaryBytes = new int[fields];
+            reset();
+        }
+
+        private void reset() {
+            m_rows.clear();
+            Arrays.fill(m_plainBytes, 0);
+            Arrays.fill(m_runs, 0);
+            Arrays.fill(m_dictionaryBytes, 0);
+            for (HashMap<Field, Integer> dict : m_dictionary)
+                dict.clear();
+        }
+
+        /** @return the number of rows added since the last page */
+        int size() {
+            return m_rows.size();
+        }
+
+        /**
+         * Adds a row to the page, if the page still has room for it.
+         * @return false if the page is full; the row is not added then
+         */
+        boolean add(Field[] row) {
+            int n = m_rows.size() + 1;
+            int bytes = 4;
+            for (int f = 0; f < row.length; f++)
+                bytes += 1 + columnSize(f, row[f], n);
+            if (bytes > m_pageSize)
+                return false;
+            for (int f = 0; f < row.length; f++) {
+                int len = valueSize(row[f]);
+                m_plainBytes[f] += len;
+                if (m_td.getFieldType(f) == Type.INT_TYPE) {
+                    if (n == 1 || !row[f].equals(m_rows.get(n - 2)[f]))
+                        m_runs[f]++;
+                } else if (!m_dictionary.get(f).containsKey(row[f])) {
+                    m_dictionary.get(f).put(row[f], m_dictionary.get(f).size());
+                    m_dictionaryBytes[f] += len;
+                }
+            }
+            m_rows.add(row);
+            return true;
+        }
+
+        /**
+         * @return the bytes of field f in the smallest encoding, once v is
+         *   added as the value of the n-th row (n - 1 rows so far).
+         */
+        private int columnSize(int f, Field v, int n) {
+            int len = valueSize(v);
+            int plain = m_plainBytes[f] + len;
+            if (m_td.getFieldType(f) == Type.INT_TYPE) {
+                boolean newRun = n == 1 || !v.equals(m_rows.get(n - 2)[f]);
+                int runs = m_runs[f] + (newRun ? 1 : 0);
+                return Math.min(plain, 4 + 8 * runs);
+            }
+            boolean known = m_dictionary.get(f).containsKey(v);
+            int entries = m_dictionary.get(f).size() + (known ? 0 : 1);
+            if (entries > MAX_DICTIONARY)
+                return plain;
+            int dict = 2 + m_dictionaryBytes[f] + (known ? 0 : len)
+                + n * (entries > 256 ? 2 : 1);
+            return Math.min(plain, dict);
+        }
+
+        private static int valueSize(Field v) {
+            if (v.getType() == Type.INT_TYPE)
+                return 4;
+            return 1 + Math.min(((StringField) v).getValue().length(), Type.STRING_LEN);
+        }
+
+        /** @return the page holding the rows added, which are then forgotten */
+        byte[] finish() {
+            byte[] page = new byte[m_pageSize];
+            ByteBuffer buf = ByteBuffer.wrap(page);
+            int n = m_rows.size();
+            buf.putInt(n);
+            for (int f = 0; f < m_td.numFields(); f++) {
+                int plain = m_plainBytes[f];
+                if (m_td.getFieldType(f) == Type.INT_TYPE && 4 + 8 * m_runs[f] < plain) {
+                    buf.put(RUN_LENGTH);
+                    buf.putInt(m_runs[f]);
+                    int i = 0;
+                    while (i < n) {
+                        int j = i + 1;
+                        while (j < n && m_rows.get(j)[f].equals(m_rows.get(i)[f]))
+                            j++;
+                        buf.putInt(((IntField) m_rows.get(i)[f]).getValue());
+                        buf.putInt(j - i);
+                        i = j;
+                    }
+                } else if (m_td.getFieldType(f) == Type.STRING_TYPE
+                           && m_dictionary.get(f).size() <= MAX_DICTIONARY
+                           && 2 + m_dictionaryBytes[f] + n * (m_dictionary.get(f).size() > 256 ? 2 : 1) < plain) {
+                    HashMap<Field, Integer> dict = m_dictionary.get(f);
+                    Field[] entries = new Field[dict.size()];
+                    for (Field v : dict.keySet())
+                        entries[dict.get(v)] = v;
+                    buf.put(DICTIONARY);
+                    buf.putShort((short) entries.length);
+                    for (Field v : entries)
+                        putValue(buf, v);
+                    for (Field[] row : m_rows) {
+                        int code = dict.get(row[f]);
+                        if (entries.length > 256)
+                            buf.putShort((short) code);
+                        else
+                            buf.put((byte) code);
+                    }
+                } else {
+                    buf.put(PLAIN);
+                    for (Field[] row : m_rows)
+                        putValue(buf, row[f]);
+                }
+            }
+            reset();
+            return page;
+        }
+
+        private static void putValue(ByteBuffer buf, Field v) {
+            if (v.getType() == Type.INT_TYPE) {
+                buf.putInt(((IntField) v).getValue());
+            } else {
+                String s = ((StringField) v).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                buf.put((byte) len);
+                for (int c = 0; c < len; c++)
+                    buf.put((byte) s.charAt(c));
+            }
+        }
+    }
+}
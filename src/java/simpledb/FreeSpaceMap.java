@@ -0,0 +1,171 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers how many empty slots every page of a HeapFile has,
+ * so that inserts find a page with room without probing pages one by one.
+ * <p>
+ * The map is kept in memory as an array of free-slot counts plus a BitSet
+ * of the pages that are not full. It is also stored in a sidecar file next
+ * to the table (table.fsm for table.dat), one int per page. The entry of a
+ * page is written whenever the page itself is written, so the sidecar
+ * matches the data on disk. If the sidecar is missing or does not cover
+ * every page, it is rebuilt by reading the page headers once.
+ * <p>
+ * The counts are hints: an insert that finds a page full corrects its
+ * entry and asks again.
+ *
+ * @see HeapFile#insertTuple
+ */
+public class FreeSpaceMap {
+
+    private final File m_file;
+    private int[] m_free;
+    private int m_numPages;
+    private final BitSet m_hasRoom;
+    /** where the last search for a page with room ended */
+    private int m_cursor;
+    private RandomAccessFile m_raf;
+    private FileChannel m_channel;
+
+    private FreeSpaceMap(File f, int numPages) {
+        m_file = f;
+        m_free = new int[Math.max(16, numPages)];
+        m_numPages = numPages;
+        m_hasRoom = new BitSet(numPages);
+        m_cursor = 0;
+    }
+
+    /**
+     * @return the sidecar file holding the free space map of the heap file
+     *   stored in f
+     */
+    public static File sidecarFile(File f) {
+        String name = f.getPath();
+        if (name.endsWith(".dat"))
+            name = name.substring(0, name.length() - ".dat".length());
+        return new File(name + ".fsm");
+    }
+
+    /**
+     * Loads the free space map of a heap file from its sidecar, or rebuilds
+     * the map from the pages of the file if the sidecar is missing or
+     * stale.
+     */
+    public static FreeSpaceMap open(HeapFile hf) throws IOException {
+        int numPages = hf.numPages();
+        FreeSpaceMap fsm = new FreeSpaceMap(sidecarFile(hf.getFile()), numPages);
+        FileChannel ch = fsm.channel();
+        if (ch.size() == 4L * numPages) {
+            ByteBuffer buf = ByteBuffer.allocate(4 * numPages);
+            while (buf.hasRemaining() && ch.read(buf, buf.position()) >= 0)
+                ;
+            buf.flip();
+            for (int pg = 0; pg < numPages; pg++)
+                fsm.set(pg, buf.getInt());
+        } else {
+            ch.truncate(0);
+            ByteBuffer buf = ByteBuffer.allocate(4 * numPages);
+            for (int pg = 0; pg < numPages; pg++) {
+                HeapPage p = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), pg));
+                fsm.set(pg, p.getNumEmptySlots());
+                buf.putInt(p.getNumEmptySlots());
+            }
+            buf.flip();
+            while (buf.hasRemaining())
+                ch.write(buf, buf.position());
+        }
+        return fsm;
+    }
+
+    /** @return the number of pages the map covers */
+    public synchronized int numPages() {
+        return m_numPages;
+    }
+
+    /** @return the number of empty slots on page pgNo, as last recorded */
+    public synchronized int getFreeSlots(int pgNo) {
+        if (pgNo < 0 || pgNo >= m_numPages)
+            throw new IllegalArgumentException("no such page: " + pgNo);
+        return m_free[pgNo];
+    }
+
+    /**
+     * @return the number of a page that has empty slots, or -1 if every
+     *   page is full. Successive calls start where the last one stopped,
+     *   so inserts keep filling the same page until it is full.
+     */
+    public synchronized int pageWithSpace() {
+        int pg = m_hasRoom.nextSetBit(m_cursor);
+        if (pg < 0)
+            pg = m_hasRoom.nextSetBit(0);
+        if (pg >= 0)
+            m_cursor = pg;
+        return pg;
+    }
+
+    /**
+     * Records the number of empty slots on a page in memory. Pages past the
+     * end of the map are added to it.
+     */
+    public synchronized void update(int pgNo, int freeSlots) {
+        set(pgNo, freeSlots);
+    }
+
+    /**
+     * Records the number of empty slots of a page that was just written to
+     * disk, in memory and in the sidecar file.
+     */
+    public synchronized void pageWritten(int pgNo, int freeSlots) throws IOException {
+        set(pgNo, freeSlots);
+        ByteBuffer buf = ByteBuffer.allocate(4);
+        buf.putInt(freeSlots);
+        buf.flip();
+        FileChannel ch = channel();
+        // fill any gap left by pages that were never written
+        if (ch.size() < 4L * pgNo) {
+            ByteBuffer gap = ByteBuffer.allocate((int) (4L * pgNo - ch.size()));
+            for (int pg = (int) (ch.size() / 4); pg < pgNo; pg++)
+                gap.putInt(m_free[pg]);
+            gap.flip();
+            long at = ch.size();
+            while (gap.hasRemaining())
+                ch.write(gap, at + gap.position());
+        }
+        while (buf.hasRemaining())
+            ch.write(buf, 4L * pgNo + buf.position());
+    }
+
+    /** Closes the sidecar file; it is reopened when needed. */
+    public synchronized void close() throws IOException {
+        if (m_raf != null) {
+            m_raf.close();
+            m_raf = null;
+            m_channel = null;
+        }
+    }
+
+    private void set(int pgNo, int freeSlots) {
+        if (pgNo >= m_free.length) {
+            int[] grown = new int[Math.max(pgNo + 1, m_free.length * 2)];
+            System.arraycopy(m_free, 0, grown, 0, m_numPages);
+            m_free = grown;
+        }
+        if (pgNo >= m_numPages)
+            m_numPages = pgNo + 1;
+        m_free[pgNo] = freeSlots;
+        m_hasRoom.set(pgNo, freeSlots > 0);
+    }
+
+    private FileChannel channel() throws IOException {
+        if (m_channel == null || !m_channel.isOpen()) {
+            m_raf = new RandomAccessFile(m_file, "rw");
+            m_channel = m_raf.getChannel();
+        }
+        return m_channel;
+    }
+}
@@ -1,6 +1,10 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -9,6 +13,19 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * Pages are read and written through one FileChannel that stays open for
+ * the life of the HeapFile. All I/O uses positional reads and writes, so
+ * concurrent readers need neither a seek nor a lock.
+ * <p>
+ * A HeapFile can also be opened in memory-mapped mode, meant for
+ * read-mostly tables. The file is then mapped read-only in segments of
+ * MAP_SEGMENT_PAGES pages, and pages are decoded straight from the mapping.
+ * Pages beyond the first MAX_MAPPED_BYTES of the file, and all writes, still
+ * go through the channel.
+ * <p>
+ * Inserts find a page with room through the table's FreeSpaceMap, which is
+ * opened on the first insert or delete and kept in a sidecar file.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
@@ -25,12 +42,51 @@ public class HeapFile implements DbFile {
 	private File m_file;
 	private TupleDesc m_td;
 	private int m_hfid;
+	private RandomAccessFile m_raf;
+	private FileChannel m_channel;
+	private boolean m_writable;
+	private final boolean m_mapped;
+	private final ArrayList<MappedByteBuffer> m_segments;
+	/** cached page count, -1 until the file length has been read */
+	private volatile int m_numPages = -1;
+	/** reused by writePage to serialize pages; guarded by this */
+	private ByteBuffer m_writeBuf;
+	/** free slots per page, opened on first use; guarded by this */
+	private FreeSpaceMap m_fsm;
+
+	/** Number of pages mapped at once in memory-mapped mode. */
+	public static final int MAP_SEGMENT_PAGES = 4096;
+	/** Bytes at the start of the file that may be memory-mapped. */
+	public static final long MAX_MAPPED_BYTES = 1L << 30;
+	/** Number of pages bulkLoad fills in memory before appending them. */
+	public static final int BULK_BATCH_PAGES = 64;
 	
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param mapped
+     *            true to read pages from a memory mapping of the file
+     *            instead of copying them through the file channel.
+     */
+    public HeapFile(File f, TupleDesc td, boolean mapped) {
         // some code goes here
     	m_file = f;
     	m_td = td;
     	m_hfid = f.getAbsoluteFile().hashCode();
+    	m_mapped = mapped;
+    	m_segments = new ArrayList<MappedByteBuffer>();
+    }
+
+    /** @return true if pages are read from a memory mapping of the file */
+    public boolean isMapped() {
+        return m_mapped;
     }
 
     /**
@@ -71,18 +127,71 @@ public class HeapFile implements DbFile {
     public Page readPage(PageId pid) {
         // some code goes here
     	HeapPageId hpid = (HeapPageId)pid;
+    	int pageSize = BufferPool.getPageSize();
+    	if (hpid.pageNumber() < 0)
+    		throw new IllegalArgumentException("Page out of bound");
+        try {
+            long offset = (long) pageSize * hpid.pageNumber();
+            if (m_mapped && offset + pageSize <= MAX_MAPPED_BYTES) {
+                ByteBuffer mapped = mappedPage(hpid.pageNumber());
+                if (mapped == null)
+                    throw new IllegalArgumentException("Page out of bound");
+                return createPage(hpid, mapped);
+            }
+            byte[] b = new byte[pageSize];
+            if (!read(ByteBuffer.wrap(b), offset))
+            	throw new IllegalArgumentException("Page out of bound");
+            return createPage(hpid, ByteBuffer.wrap(b));
+        } catch (FileNotFoundException e) {
+            throw new IllegalArgumentException("No such file: " + m_file);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Page out of bound");
+        }
+    }
+
+    /**
+     * @return the page pid, read from data. Subclasses that store their
+     *   pages in another format return their own HeapPage subclass.
+     */
+    HeapPage createPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
+    // see DbFile.java for javadocs
+    public Page[] readPages(PageId first, int count) {
+        HeapPageId hpid = (HeapPageId)first;
+        int pageSize = BufferPool.getPageSize();
+        if (hpid.pageNumber() < 0 || count < 0)
+            throw new IllegalArgumentException("Page out of bound");
         try {
-            long offset = BufferPool.PAGE_SIZE * hpid.pageNumber();
-            byte[] b = new byte[BufferPool.PAGE_SIZE];
-            if (offset + BufferPool.PAGE_SIZE > m_file.length())
-            	throw new IllegalArgumentException();
-            RandomAccessFile raf = new RandomAccessFile(m_file,"r");
-            raf.seek(offset);
-            raf.read(b);
-            raf.close();
-            return new HeapPage(hpid, b);
+            long offset = (long) pageSize * hpid.pageNumber();
+            ArrayList<Page> pages = new ArrayList<Page>(count);
+            if (m_mapped && offset + (long) pageSize * count <= MAX_MAPPED_BYTES) {
+                for (int i = 0; i < count; i++) {
+                    ByteBuffer mapped = mappedPage(hpid.pageNumber() + i);
+                    if (mapped == null)
+                        break;
+                    pages.add(createPage(new HeapPageId(m_hfid, hpid.pageNumber() + i), mapped));
+                }
+            } else {
+                // one positional read for the whole range; each page gets
+                // its own copy, so a page and its tuples keep only their
+                // own bytes alive
+                ByteBuffer buf = ByteBuffer.allocate(pageSize * count);
+                read(buf, offset);
+                int n = buf.position() / pageSize;
+                for (int i = 0; i < n; i++) {
+                    byte[] data = new byte[pageSize];
+                    System.arraycopy(buf.array(), i * pageSize, data, 0, pageSize);
+                    pages.add(createPage(new HeapPageId(m_hfid, hpid.pageNumber() + i),
+                            ByteBuffer.wrap(data)));
+                }
+            }
+            if (pages.isEmpty() && count > 0)
+                throw new IllegalArgumentException("Page out of bound");
+            return pages.toArray(new Page[pages.size()]);
         } catch (FileNotFoundException e) {
-            throw new IllegalArgumentException();
+            throw new IllegalArgumentException("No such file: " + m_file);
         } catch (IOException e) {
             throw new IllegalArgumentException("Page out of bound");
         }
@@ -92,30 +201,366 @@ public class HeapFile implements DbFile {
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
+        int pageSize = BufferPool.getPageSize();
+        long offset = (long) pageSize * page.getId().pageNumber();
+        synchronized (this) {
+            if (m_writeBuf == null || m_writeBuf.capacity() != pageSize)
+                m_writeBuf = ByteBuffer.allocateDirect(pageSize);
+            ByteBuffer buf = m_writeBuf;
+            buf.clear();
+            page.writePageData(buf);
+            buf.flip();
+            FileChannel ch = channel(true);
+            while (buf.hasRemaining())
+                ch.write(buf, offset + buf.position());
+            pageWritten(page);
+        }
+        grow(page.getId().pageNumber() + 1);
+    }
+
+    /**
+     * Records the free slots of a page that was just written in the free
+     * space map, if it is open. Subclasses that write pages themselves
+     * call this while holding the HeapFile's monitor.
+     */
+    synchronized void pageWritten(Page page) throws IOException {
+        if (m_fsm != null && page instanceof HeapPage)
+            m_fsm.pageWritten(page.getId().pageNumber(),
+                    ((HeapPage) page).getNumEmptySlots());
     }
 
     /**
-     * Returns the number of pages in this HeapFile.
+     * Writes count serialized pages, held in pages from its position to
+     * its limit, as pages first, first + 1, ... of the file. Used by
+     * bulkLoad, with the HeapFile's monitor held.
+     */
+    void appendPages(ByteBuffer pages, int first, int count) throws IOException {
+        FileChannel ch = channel(true);
+        long offset = (long) BufferPool.getPageSize() * first;
+        int start = pages.position();
+        while (pages.hasRemaining())
+            ch.write(pages, offset + pages.position() - start);
+        grow(first + count);
+    }
+
+    /**
+     * Forces the pages appended by appendPages to disk, together with the
+     * new length of the file.
+     */
+    void forceAppended() throws IOException {
+        channel(true).force(true);
+    }
+
+    /** Notes that the file now holds at least the given number of pages. */
+    private synchronized void grow(int pages) {
+        if (m_numPages >= 0 && pages > m_numPages)
+            m_numPages = pages;
+    }
+
+    /**
+     * Fills buf from the given file offset with positional reads.
+     * @return false if the file ends before buf is full; buf's position
+     *   then tells how much was read
+     */
+    boolean read(ByteBuffer buf, long offset) throws IOException {
+        int start = buf.position();
+        try {
+            return readFully(channel(false), buf, offset);
+        } catch (ClosedChannelException e) {
+            // an interrupted reader closes the shared channel; reopen once
+            buf.position(start);
+            return readFully(channel(false), buf, offset);
+        }
+    }
+
+    private static boolean readFully(FileChannel ch, ByteBuffer buf, long offset)
+        throws IOException {
+        int start = buf.position();
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, offset + buf.position() - start) < 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return a read-only view of the page in its mapped segment, or null if
+     *   the page lies beyond the end of the file. Segments are mapped on
+     *   first use and remapped when the file has grown past them.
+     */
+    private synchronized ByteBuffer mappedPage(int pgNo) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int seg = pgNo / MAP_SEGMENT_PAGES;
+        int inSeg = (pgNo % MAP_SEGMENT_PAGES) * pageSize;
+        while (m_segments.size() <= seg)
+            m_segments.add(null);
+        MappedByteBuffer segment = m_segments.get(seg);
+        if (segment == null || segment.capacity() < inSeg + pageSize) {
+            FileChannel ch = channel(false);
+            long segStart = (long) seg * MAP_SEGMENT_PAGES * pageSize;
+            long len = Math.min((long) MAP_SEGMENT_PAGES * pageSize, ch.size() - segStart);
+            if (len < inSeg + pageSize)
+                return null;
+            segment = ch.map(FileChannel.MapMode.READ_ONLY, segStart, len);
+            m_segments.set(seg, segment);
+        }
+        ByteBuffer page = segment.duplicate();
+        page.position(inSeg);
+        page.limit(inSeg + pageSize);
+        return page.slice();
+    }
+
+    /**
+     * @return the channel of the backing file, opened on first use
+     * @param write true if the caller is going to write
+     */
+    synchronized FileChannel channel(boolean write) throws IOException {
+        if (m_channel != null && m_channel.isOpen() && (m_writable || !write))
+            return m_channel;
+        if (m_raf != null)
+            m_raf.close();
+        // open read-only files read-only, and never create a missing file
+        // just because somebody tried to read it
+        m_writable = write || m_file.canWrite();
+        m_raf = new RandomAccessFile(m_file, m_writable ? "rw" : "r");
+        m_channel = m_raf.getChannel();
+        return m_channel;
+    }
+
+    /**
+     * Closes the file channel. The HeapFile stays usable; the channel is
+     * reopened by the next read or write.
+     */
+    public synchronized void close() throws IOException {
+        if (m_raf != null) {
+            m_raf.close();
+            m_raf = null;
+            m_channel = null;
+        }
+        m_segments.clear();
+        if (m_fsm != null)
+            m_fsm.close();
+    }
+
+    /** @return the free space map of this file, opened on first use */
+    private synchronized FreeSpaceMap freeSpace() throws DbException {
+        if (m_fsm == null) {
+            try {
+                m_fsm = FreeSpaceMap.open(this);
+            } catch (IOException e) {
+                throw new DbException("could not open free space map of "
+                        + m_file + ": " + e.getMessage());
+            }
+        }
+        return m_fsm;
+    }
+
+    /**
+     * Appends an empty page to the file.
+     * @return the number of the new page
+     */
+    private synchronized int appendEmptyPage() throws IOException {
+        int pgNo = numPages();
+        writePage(createPage(new HeapPageId(m_hfid, pgNo),
+                ByteBuffer.wrap(HeapPage.createEmptyPageData())));
+        return pgNo;
+    }
+
+    /**
+     * Returns the number of pages in this HeapFile. The count is kept in
+     * memory: it is read from the file length once and then maintained by
+     * writePage. Pages appended by somebody else are only seen after
+     * refreshNumPages().
      */
     public int numPages() {
         // some code goes here
-        return (int)((m_file.length()+BufferPool.PAGE_SIZE-1)/BufferPool.PAGE_SIZE);
+        int n = m_numPages;
+        return n >= 0 ? n : refreshNumPages();
+    }
+
+    /**
+     * Re-reads the length of the backing file, to notice pages appended to
+     * it behind this HeapFile's back.
+     *
+     * @return the number of pages in this HeapFile
+     */
+    public synchronized int refreshNumPages() {
+        int pageSize = BufferPool.getPageSize();
+        m_numPages = (int)((m_file.length()+pageSize-1)/pageSize);
+        return m_numPages;
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        return null;
         // not necessary for lab1
+        if (!m_td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc is mismatch");
+        FreeSpaceMap fsm = freeSpace();
+        BufferPool bp = Database.getBufferPool();
+        while (true) {
+            int pgNo = fsm.pageWithSpace();
+            boolean appended = pgNo < 0;
+            if (appended)
+                pgNo = appendEmptyPage();
+            HeapPageId pid = new HeapPageId(m_hfid, pgNo);
+            // pinned, so that it cannot be evicted before it is marked dirty
+            HeapPage page = (HeapPage) bp.pinPage(tid, pid, Permissions.READ_WRITE, null);
+            try {
+                synchronized (page) {
+                    if (!page.hasRoomFor(t)) {
+                        if (appended)
+                            throw new DbException("tuple does not fit on an empty page");
+                        // the map was out of date, or t is larger than
+                        // the tuples that would still fit
+                        fsm.update(pgNo, 0);
+                        continue;
+                    }
+                    page.insertTuple(t);
+                    page.markDirty(true, tid);
+                    fsm.update(pgNo, page.getNumEmptySlots());
+                }
+            } finally {
+                bp.unpinPage(pid);
+            }
+            ArrayList<Page> dirtied = new ArrayList<Page>();
+            dirtied.add(page);
+            return dirtied;
+        }
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
-        return null;
         // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != m_hfid)
+            throw new DbException("tuple is not a member of this file");
+        PageId pid = rid.getPageId();
+        if (pid.pageNumber() < 0 || pid.pageNumber() >= numPages())
+            throw new DbException("tuple is not a member of this file");
+        FreeSpaceMap fsm = freeSpace();
+        BufferPool bp = Database.getBufferPool();
+        HeapPage page = (HeapPage) bp.pinPage(tid, pid, Permissions.READ_WRITE, null);
+        try {
+            synchronized (page) {
+                page.deleteTuple(t);
+                page.markDirty(true, tid);
+                fsm.update(pid.pageNumber(), page.getNumEmptySlots());
+            }
+        } finally {
+            bp.unpinPage(pid);
+        }
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        dirtied.add(page);
+        return dirtied;
+    }
+
+    /**
+     * Appends tuples to the end of this file without going through the
+     * buffer pool. Fresh pages are filled in memory and written
+     * BULK_BATCH_PAGES at a time with one sequential write each; every
+     * batch is covered by a single BULK log record, forced before the
+     * pages are written. The appended pages are forced to disk before this
+     * method returns, since they never pass through the buffer pool that
+     * would force them at commit. Pages that already have free space are
+     * left alone.
+     * <p>
+     * The file is locked for the whole load, so no other thread appends
+     * pages in between. If a tuple does not match the file's TupleDesc,
+     * the batches written so far stay in the file.
+     *
+     * @param tid the transaction loading the tuples
+     * @param tuples the tuples to load; their RecordIds are set
+     * @return the number of tuples loaded
+     */
+    public int bulkLoad(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException {
+        synchronized (this) {
+            BulkAppender out = new BulkAppender(tid);
+            while (tuples.hasNext())
+                out.add(tuples.next());
+            return out.finish();
+        }
+    }
+
+    /**
+     * Appends the tuples produced by child, as bulkLoad(TransactionId,
+     * Iterator) does. child is opened and closed by this method.
+     */
+    public int bulkLoad(TransactionId tid, DbIterator child)
+            throws DbException, IOException, TransactionAbortedException {
+        synchronized (this) {
+            BulkAppender out = new BulkAppender(tid);
+            child.open();
+            try {
+                while (child.hasNext())
+                    out.add(child.next());
+            } finally {
+                child.close();
+            }
+            return out.finish();
+        }
+    }
+
+    /** Fills pages for bulkLoad and appends them in batches. */
+    private class BulkAppender {
+        private final TransactionId m_tid;
+        private final ByteBuffer m_batch = ByteBuffer.allocateDirect(BufferPool.getPageSize() * BULK_BATCH_PAGES);
+        private final int[] m_free = new int[BULK_BATCH_PAGES];
+        // pages never write to their data, so all of them can share it
+        private final byte[] m_empty = HeapPage.createEmptyPageData();
+        private int m_first = numPages();
+        private int m_filled = 0;
+        private HeapPage m_page;
+        private int m_count = 0;
+
+        BulkAppender(TransactionId tid) {
+            m_tid = tid;
+        }
+
+        void add(Tuple t) throws DbException, IOException {
+            if (m_page == null || !m_page.hasRoomFor(t)) {
+                if (m_page != null)
+                    finishPage();
+                m_page = createPage(new HeapPageId(m_hfid, m_first + m_filled), ByteBuffer.wrap(m_empty));
+            }
+            m_page.insertTuple(t);
+            m_count++;
+        }
+
+        int finish() throws IOException {
+            if (m_page != null)
+                finishPage();
+            if (m_filled > 0)
+                append();
+            if (m_count > 0)
+                forceAppended();
+            return m_count;
+        }
+
+        private void finishPage() throws IOException {
+            m_page.writePageData(m_batch);
+            m_free[m_filled++] = m_page.getNumEmptySlots();
+            m_page = null;
+            if (m_filled == BULK_BATCH_PAGES)
+                append();
+        }
+
+        private void append() throws IOException {
+            Database.getLogFile().logBulkAppend(m_tid, m_hfid, m_first, m_filled);
+            m_batch.flip();
+            appendPages(m_batch, m_first, m_filled);
+            m_batch.clear();
+            if (m_fsm != null) {
+                for (int i = 0; i < m_filled; i++)
+                    m_fsm.pageWritten(m_first + i, m_free[i]);
+            }
+            m_first += m_filled;
+            m_filled = 0;
+        }
     }
 
     // see DbFile.java for javadocs
@@ -124,52 +569,120 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(tid);
     }
 
+    /**
+     * Returns an iterator over the tuples of this file that pass pred. The
+     * predicate is evaluated on the page bytes of each tuple, so tuples
+     * that do not pass are never created.
+     *
+     * @throws IllegalArgumentException if pred does not fit the schema of
+     *   this file
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate pred) {
+        return new HeapFileIterator(tid, pred.bind(getTupleDesc()));
+    }
+
     
-    public class HeapFileIterator implements DbFileIterator {
+    public class HeapFileIterator implements DbFileIterator, BatchIterator {
 
     	private TransactionId m_tid;
+    	/** the tuples handed over must pass this, if not null */
+    	private Predicate m_pred;
     	private int pgNo = 0;
-    	private Iterator<Tuple> m_tupleItr;
+    	private int m_pages;
+    	/** the page being iterated, or null once it has run out */
+    	private HeapPage m_page;
+    	/** true once page pgNo has been read; false while the file was empty */
+    	private boolean m_read;
+    	/** the next slot of m_page to look at */
+    	private int m_slot;
+    	/** true if m_slot is known to hold the next tuple to hand over */
+    	private boolean m_found;
     	private boolean opened = false;
+    	private ScanHint m_hint;
+    	private PageId m_pinned;
     	
     	public HeapFileIterator(TransactionId tid) {
     		m_tid = tid;
     		opened = false;
     	}
 
+    	HeapFileIterator(TransactionId tid, Predicate pred) {
+    		this(tid);
+    		m_pred = pred;
+    	}
+
     	@Override
     	public void open() throws DbException, TransactionAbortedException {
     		if (opened)
     			return;
-    		m_tupleItr = getListFromPage(pgNo);
+    		m_pages = numPages();
+    		m_hint = Database.getBufferPool().newScanHint(m_pages);
+    		m_page = pgNo < m_pages ? getPage(pgNo) : null;
+    		m_read = m_page != null;
+    		m_slot = 0;
     		opened = true;
     	}
 
+    	/**
+    	 * Moves on to the next page until one with tuples is found. The page
+    	 * count is taken when the scan opens; only when the scan runs out of
+    	 * pages is the file checked for pages appended meanwhile.
+    	 */
     	@Override
     	public boolean hasNext() throws DbException, TransactionAbortedException {
-    		if (!opened || m_tupleItr == null)
+    		if (!opened)
     			return false;
-    		if (m_tupleItr.hasNext() || (pgNo < numPages()-1))
+    		if (m_found)
     			return true;
-    		return false;
-
+    		while (true) {
+    			if (m_page != null) {
+    				int slot = m_page.nextUsedSlot(m_slot);
+    				while (slot >= 0 && m_pred != null && !m_page.passes(m_pred, slot))
+    					slot = m_page.nextUsedSlot(slot + 1);
+    				if (slot >= 0) {
+    					m_slot = slot;
+    					m_found = true;
+    					return true;
+    				}
+    				m_page = null;
+    			}
+    			if (!nextPage())
+    				return false;
+    		}
     	}
 
     	@Override
     	public Tuple next() throws DbException, TransactionAbortedException,
     			NoSuchElementException {
-    		if (this.hasNext())
-    			if(m_tupleItr.hasNext())
-    				return m_tupleItr.next();
-    			else{
-    				pgNo += 1;
-    				m_tupleItr = getListFromPage(pgNo);
-    				if (m_tupleItr.hasNext())
-    					return m_tupleItr.next();
-    				else
-    					throw new NoSuchElementException();
+    		if (!this.hasNext())
+    			throw new NoSuchElementException();
+    		m_found = false;
+    		return m_page.getTuple(m_slot++);
+    	}
+
+    	/**
+    	 * Fills b with the next tuples, copied from the pages a page at a
+    	 * time. A batch may hold tuples of several pages.
+    	 */
+    	@Override
+    	public boolean nextBatch(TupleBatch b) throws DbException, TransactionAbortedException {
+    		b.clear();
+    		if (!opened)
+    			return false;
+    		m_found = false;
+    		while (!b.isFull()) {
+    			if (m_page != null) {
+    				int slot = m_page.fillBatch(b, m_slot, m_pred);
+    				if (slot >= 0) {
+    					m_slot = slot;
+    					break;
+    				}
+    				m_page = null;
     			}
-    		throw new NoSuchElementException();
+    			if (!nextPage())
+    				break;
+    		}
+    		return b.size() > 0;
     	}
 
     	@Override
@@ -181,14 +694,81 @@ public class HeapFile implements DbFile {
 
     	@Override
     	public void close() {
-    		//m_tupleItr = null;
+    		unpin();
+    		m_page = null;
+    		m_found = false;
     		opened = false;
     	}
 
-    	private Iterator<Tuple> getListFromPage(int pgNo)  throws DbException, TransactionAbortedException {
+    	/**
+    	 * @return false if there is no page after the current one, or no
+    	 *   page at all if the file was empty when the scan opened
+    	 */
+    	private boolean nextPage() throws DbException, TransactionAbortedException {
+    		int next = m_read ? pgNo + 1 : pgNo;
+    		if (next >= m_pages) {
+    			m_pages = refreshNumPages();
+    			if (next >= m_pages)
+    				return false;
+    		}
+    		pgNo = next;
+    		m_read = true;
+    		m_page = getPage(pgNo);
+    		m_slot = 0;
+    		return true;
+    	}
+
+    	/** Pins the page being iterated so that it stays in the buffer pool. */
+    	private HeapPage getPage(int pgNo)  throws DbException, TransactionAbortedException {
+    		unpin();
     		PageId pid = new HeapPageId(getId(), pgNo);
-    		HeapPage hp = (HeapPage) Database.getBufferPool().getPage(m_tid, pid, Permissions.READ_WRITE);
-    		return hp.iterator();
+    		readRange(pid);
+    		HeapPage hp = (HeapPage) Database.getBufferPool().pinPage(m_tid, pid, Permissions.READ_ONLY, m_hint);
+    		m_pinned = pid;
+    		readAhead(pgNo);
+    		return hp;
+    	}
+
+    	/**
+    	 * Reads the page pid together with the pages after it in one range,
+    	 * if it is missing and the hint asks for ranges.
+    	 */
+    	private void readRange(PageId pid) {
+    		if (m_hint == null || m_hint.getRangePages() < 2)
+    			return;
+    		BufferPool bp = Database.getBufferPool();
+    		if (bp.isCached(pid))
+    			return;
+    		int n = Math.min(m_hint.getRangePages(), m_pages - pid.pageNumber());
+    		if (n < 2)
+    			return;
+    		PageId[] pids = new PageId[n];
+    		for (int i = 0; i < n; i++)
+    			pids[i] = new HeapPageId(getId(), pid.pageNumber() + i);
+    		bp.loadPages(pids, m_hint);
+    	}
+
+    	/** Has the pages after pgNo read in the background, if the hint asks for it. */
+    	private void readAhead(int pgNo) {
+    		if (m_hint == null)
+    			return;
+    		int start = m_hint.readAhead(pgNo);
+    		if (start < 0)
+    			return;
+    		int end = Math.min(pgNo + m_hint.getReadAheadWindow(), m_pages - 1);
+    		if (start > end)
+    			return;
+    		PageId[] pids = new PageId[end - start + 1];
+    		for (int i = 0; i < pids.length; i++)
+    			pids[i] = new HeapPageId(getId(), start + i);
+    		Database.getBufferPool().prefetchPages(pids, m_hint);
+    	}
+
+    	private void unpin() {
+    		if (m_pinned != null) {
+    			Database.getBufferPool().unpinPage(m_pinned);
+    			m_pinned = null;
+    		}
     	}
     	
     }
@@ -1,7 +1,10 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -138,24 +141,21 @@ public class HeapFileEncoder {
             first = false;
         if (c == fieldSeparator || c == '\n' || c == '\r') {
             String s = new String(buf, 0, curpos);
+            if ((c == '\n') != (fieldNo == numFields - 1))
+                throw new IOException("BAD LINE : " + s + ": not " + numFields + " fields");
             if (typeAr[fieldNo] == Type.INT_TYPE) {
                 try {
                     pageStream.writeInt(Integer.parseInt(s.trim()));
                 } catch (NumberFormatException e) {
-                    System.out.println ("BAD LINE : " + s);
+                    throw new IOException("BAD LINE : " + s);
                 }
             }
             else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
-                if (overflow < 0) {
-                    String news = s.substring(0,Type.STRING_LEN);
-                    s  = news;
+                try {
+                    new StringField(s.trim(), Type.STRING_LEN).serialize(pageStream);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("BAD LINE : " + s + ": " + e.getMessage());
                 }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
-                while (overflow-- > 0)
-                    pageStream.write((byte)0);
             }
             curpos = 0;
             if (c == '\n')
@@ -223,4 +223,215 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+   /** Convert the specified input text file into a binary file of
+    * EncodedPages, for reading with an EncodedHeapFile. <br>
+    * The input file has the format described for
+    * {@link #convert(File, File, int, int, Type[], char)}. Every page
+    * holds as many tuples as fit once its columns are encoded: int
+    * columns plain or run-length encoded, string columns plain or with a
+    * dictionary, whichever is smaller.
+    *
+    * @see EncodedPage
+    * @see EncodedHeapFile
+    * @param inFile The input file to read data from
+    * @param outFile The output file to write data to
+    * @param npagebytes The number of bytes per page in the output file
+    * @param numFields the number of fields in each input line/output tuple
+    * @throws IOException if the input/output file can't be opened, a
+    *   malformed input line is encountered or a tuple does not fit on a page
+    */
+  public static void convertEncoded(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      EncodedPage.Encoder page = new EncodedPage.Encoder(new TupleDesc(typeAr), npagebytes);
+      String separator = Pattern.quote(String.valueOf(fieldSeparator));
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile));
+      int npages = 0;
+      Field[] row;
+      while ((row = readRow(br, separator, numFields, typeAr)) != null) {
+          if (!page.add(row)) {
+              if (page.size() == 0)
+                  throw new IOException("tuple does not fit on a page");
+              os.write(page.finish());
+              npages++;
+              page.add(row);
+          }
+      }
+      // like convert, write an empty page for an empty file
+      if (page.size() > 0 || npages == 0)
+          os.write(page.finish());
+      br.close();
+      os.close();
+  }
+
+   /** Convert the specified input text file into a binary file of
+    * PaxPages, for reading with a PaxHeapFile. <br>
+    * The input file has the format described for
+    * {@link #convert(File, File, int, int, Type[], char)}. Pages hold as
+    * many tuples as a HeapPage; each field of the tuples of a page is
+    * stored in a minipage of its own.
+    *
+    * @see PaxPage
+    * @see PaxHeapFile
+    * @param inFile The input file to read data from
+    * @param outFile The output file to write data to
+    * @param npagebytes The number of bytes per page in the output file
+    * @param numFields the number of fields in each input line/output tuple
+    * @throws IOException if the input/output file can't be opened or a
+    *   malformed input line is encountered
+    */
+  public static void convertPax(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      TupleDesc td = new TupleDesc(typeAr);
+      int nrecords = (npagebytes * 8) / (td.getSize() * 8 + 1);
+      int nheaderbytes = (nrecords + 7) / 8;
+      String separator = Pattern.quote(String.valueOf(fieldSeparator));
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile));
+      ByteBuffer page = ByteBuffer.allocate(npagebytes);
+      int recordcount = 0;
+      int npages = 0;
+      Field[] row;
+      while ((row = readRow(br, separator, numFields, typeAr)) != null) {
+          Tuple t = new Tuple(td);
+          for (int f = 0; f < numFields; f++)
+              t.setField(f, row[f]);
+          // the minipages of the fields before f hold nrecords values each
+          for (int f = 0; f < numFields; f++) {
+              page.position(nheaderbytes + nrecords * td.getFieldOffset(f)
+                      + recordcount * typeAr[f].getLen());
+              t.serializeField(f, page);
+          }
+          page.put(recordcount / 8, (byte) (page.get(recordcount / 8) | (1 << (recordcount % 8))));
+          if (++recordcount == nrecords) {
+              os.write(page.array());
+              Arrays.fill(page.array(), (byte) 0);
+              recordcount = 0;
+              npages++;
+          }
+      }
+      // like convert, write an empty page for an empty file
+      if (recordcount > 0 || npages == 0)
+          os.write(page.array());
+      br.close();
+      os.close();
+  }
+
+   /** Convert the specified input text file into a binary file of
+    * SlottedPages, for reading with a SlottedHeapFile. <br>
+    * The input file has the format described for
+    * {@link #convert(File, File, int, int, Type[], char)}. Every page
+    * holds as many variable-length records as fit.
+    *
+    * @see SlottedPage
+    * @see SlottedHeapFile
+    * @param inFile The input file to read data from
+    * @param outFile The output file to write data to
+    * @param npagebytes The number of bytes per page in the output file
+    * @param numFields the number of fields in each input line/output tuple
+    * @throws IOException if the input/output file can't be opened, a
+    *   malformed input line is encountered or a tuple does not fit on a page
+    */
+  public static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      TupleDesc td = new TupleDesc(typeAr);
+      String separator = Pattern.quote(String.valueOf(fieldSeparator));
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile));
+      ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+      int maxSlots = SlottedPage.maxSlots(td, npagebytes);
+      // bytes taken by the directory entry count and the records so far
+      int used = 2;
+      int npages = 0;
+      Field[] row;
+      while ((row = readRow(br, separator, numFields, typeAr)) != null) {
+          Tuple t = new Tuple(td);
+          for (int f = 0; f < numFields; f++)
+              t.setField(f, row[f]);
+          // a record also takes a two byte directory entry
+          int size = SlottedPage.recordSize(t) + 2;
+          if (tuples.size() == maxSlots || used + size > npagebytes) {
+              if (tuples.isEmpty())
+                  throw new IOException("tuple does not fit on a page");
+              os.write(SlottedPage.encode(tuples, npagebytes));
+              npages++;
+              tuples.clear();
+              used = 2;
+          }
+          tuples.add(t);
+          used += size;
+      }
+      // like convert, write an empty page for an empty file
+      if (!tuples.isEmpty() || npages == 0)
+          os.write(SlottedPage.encode(tuples, npagebytes));
+      br.close();
+      os.close();
+  }
+
+   /** Convert the specified input text file into a compressed heap file,
+    * for reading with a CompressedHeapFile. <br>
+    * The input file has the format described for
+    * {@link #convert(File, File, int, int, Type[], char)}. The pages are
+    * those convert writes, each compressed on its own; the page index is
+    * written to CompressedHeapFile.indexFile(outFile).
+    *
+    * @see CompressedHeapFile
+    * @param inFile The input file to read data from
+    * @param outFile The output file to write data to
+    * @param npagebytes The number of bytes per page before compression
+    * @param numFields the number of fields in each input line/output tuple
+    * @throws IOException if the input/output file can't be opened or a
+    *   malformed input line is encountered
+    */
+  public static void convertCompressed(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      File pages = File.createTempFile("tempTable", ".dat");
+      try {
+          convert(inFile, pages, npagebytes, numFields, typeAr, fieldSeparator);
+          CompressedHeapFile.compressFile(pages, outFile, npagebytes);
+      } finally {
+          pages.delete();
+      }
+  }
+
+  /**
+   * Reads the next line of a text file in the format described for
+   * {@link #convert(File, File, int, int, Type[], char)}.
+   *
+   * @param separator the field separator, quoted as a regular expression
+   * @return the fields of the line, or null at the end of the file
+   * @throws IOException if the line has the wrong number of fields, a
+   *   malformed number or a character a string cannot store, as convert
+   *   does
+   */
+  private static Field[] readRow(BufferedReader br, String separator,
+                 int numFields, Type[] typeAr) throws IOException {
+      String line = br.readLine();
+      // empty lines are skipped, as convert does
+      while (line != null && line.length() == 0)
+          line = br.readLine();
+      if (line == null)
+          return null;
+      String[] values = line.split(separator, -1);
+      if (values.length != numFields)
+          throw new IOException("BAD LINE : " + line + ": not " + numFields + " fields");
+      Field[] row = new Field[numFields];
+      try {
+          for (int i = 0; i < numFields; i++) {
+              if (typeAr[i] == Type.INT_TYPE)
+                  row[i] = new IntField(Integer.parseInt(values[i].trim()));
+              else
+                  row[i] = new StringField(values[i].trim(), Type.STRING_LEN);
+          }
+      } catch (IllegalArgumentException e) {
+          // a malformed number, or a character a string cannot store
+          throw new IOException("BAD LINE : " + line + ": " + e.getMessage());
+      }
+      return row;
+  }
 }
@@ -2,10 +2,27 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A HeapPage keeps the bytes it was read from and only parses the header
+ * up front. The Tuple of a slot is created when the slot is first asked
+ * for, and its fields are decoded from the page bytes when they are first
+ * used. The page bytes are never modified; changes to the page live in the
+ * header and in the tuples that replace slots. A tuple decoded lazily only
+ * keeps the page bytes and the page's Layout, not the page itself. Bytes
+ * that are not a private array, e.g. a file mapping, may change under the
+ * page once it is written back, so tuples read from them are decoded whole
+ * when they are created.
+ * <p>
+ * The header is kept as a bitmap of 64-bit words: bit i % 64 of word i / 64
+ * is set if slot i is used. This is the on-disk header read as
+ * little-endian longs, so counting and finding used slots works a word at
+ * a time.
  *
  * @see HeapFile
  * @see BufferPool
@@ -15,10 +32,21 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
+    /** slot bitmap; bits past numSlots are always clear */
+    final long used[];
+    final int m_headerSize;
     final Tuple tuples[];
     final int numSlots;
 
+    /** the page as it was read; slots not materialized yet are decoded from here */
+    volatile ByteBuffer m_data;
+    /** where the fields of each slot are in m_data */
+    Layout m_layout;
+    private final int m_tupleSize;
+
+    private volatile TransactionId m_dirtier;
+
+    /** the before-image, or null while it is still the page as read */
     byte[] oldData;
     private final Byte oldDataLock=new Byte((byte)0);
 
@@ -39,27 +67,87 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the page, e.g. a slice of a
+     * memory-mapped file. The page is read from the buffer's current
+     * position. The buffer is retained and tuples are decoded straight from
+     * it, without copying it into a byte array first, so its contents must
+     * not change afterwards. The same holds for the array passed to
+     * {@link #HeapPage(HeapPageId, byte[])}.
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.m_tupleSize = td.getSize();
 
         // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        m_headerSize = getHeaderSize();
+        if (data.remaining() < m_headerSize + numSlots * m_tupleSize)
+            throw new IOException("page is too short");
+        m_data = data.slice();
+        m_layout = rowLayout();
+        used = new long[(numSlots + 63) / 64];
+        readHeader(m_data.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+
+        // tuples are created on demand
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+
+        // the page as read is the before-image until the next commit; it is
+        // never written, so it needs no copy
+        oldData = null;
+    }
+
+    /**
+     * Constructor for page formats with a layout of their own: sets up
+     * numSlots empty slots over data, without reading a header. The
+     * subclass marks the used slots and overrides the methods that depend
+     * on where tuples are stored.
+     */
+    HeapPage(HeapPageId id, ByteBuffer data, int numSlots) {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = numSlots;
+        this.m_tupleSize = td.getSize();
+        m_headerSize = 0;
+        m_data = data.slice();
+        m_layout = rowLayout();
+        used = new long[(numSlots + 63) / 64];
+        tuples = new Tuple[numSlots];
+        oldData = null;
+    }
+
+    /**
+     * Layout tells where field f of slot i is in the bytes of a page: at
+     * base[f] + i * stride[f]. It is immutable, so tuples decoded lazily
+     * share it instead of keeping their page.
+     */
+    static final class Layout {
+        private final int[] m_base;
+        private final int[] m_stride;
+
+        Layout(int[] base, int[] stride) {
+            m_base = base;
+            m_stride = stride;
         }
-        dis.close();
 
-        setBeforeImage();
+        int fieldOffset(int i, int f) {
+            return m_base[f] + i * m_stride[f];
+        }
+    }
+
+    /** @return the layout of tuples stored as rows after the header */
+    private Layout rowLayout() {
+        int[] base = new int[td.numFields()];
+        int[] stride = new int[base.length];
+        for (int f = 0; f < base.length; f++) {
+            base[f] = m_headerSize + td.getFieldOffset(f);
+            stride[f] = m_tupleSize;
+        }
+        return new Layout(base, stride);
     }
 
     /** Retrieve the number of tuples on this page.
@@ -91,7 +179,9 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            if (oldDataRef == null)
+                return reread(m_data.duplicate());
+            return reread(ByteBuffer.wrap(oldDataRef));
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -101,12 +191,21 @@ public class HeapPage implements Page {
     }
     
     public void setBeforeImage() {
+        // getPageData returns a fresh array, no need to clone it
+        byte[] data = getPageData();
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = data;
         }
     }
 
+    /**
+     * @return a page of the same format as this one, read from data
+     */
+    HeapPage reread(ByteBuffer data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
     /**
      * @return the PageId associated with this page.
      */
@@ -115,37 +214,82 @@ public class HeapPage implements Page {
     	return pid;
     }
 
+    /** Reads the header bytes at the start of buf into the bitmap. */
+    private void readHeader(ByteBuffer buf) {
+        int full = m_headerSize / 8;
+        for (int w=0; w<full; w++)
+            used[w] = buf.getLong(w * 8);
+        for (int b=full * 8; b<m_headerSize; b++)
+            used[b / 8] |= (long) (buf.get(b) & 0xff) << ((b % 8) * 8);
+        // ignore garbage in the bits of slots that do not exist
+        if (numSlots % 64 != 0)
+            used[used.length - 1] &= (1L << (numSlots % 64)) - 1;
+    }
+
+    /** Writes the bitmap as header bytes at index start of buf. */
+    private void writeHeader(ByteBuffer buf, int start) {
+        int full = m_headerSize / 8;
+        for (int w=0; w<full; w++)
+            buf.putLong(start + w * 8, used[w]);
+        for (int b=full * 8; b<m_headerSize; b++)
+            buf.put(start + b, (byte) (used[b / 8] >>> ((b % 8) * 8)));
+    }
+
+    /** @return the index of the first byte of slot i in the page */
+    private int slotOffset(int i) {
+        return m_headerSize + i * m_tupleSize;
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * @return the index of the first byte of field f of the tuple in slot i
+     *   in the page. Page formats that do not store tuples as contiguous
+     *   rows set their own m_layout, and override clearSlot and writeSlot.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    final int fieldOffset(int i, int f) {
+        return m_layout.fieldOffset(i, f);
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+    /** Zeroes the bytes of slot i in dst, whose page starts at index start. */
+    void clearSlot(ByteBuffer dst, int start, int i) {
+        zero(dst, start + slotOffset(i), m_tupleSize);
+    }
+
+    /** Serializes t as the tuple of slot i into dst, whose page starts at index start. */
+    void writeSlot(ByteBuffer dst, int start, int i, Tuple t) {
+        dst.position(start + slotOffset(i));
+        t.serialize(dst);
+    }
+
+    /**
+     * @return the tuple in slot i, or null if the slot is empty. The tuple
+     *   is created the first time the slot is asked for; its fields are
+     *   decoded from the page bytes as they are used, or right away if the
+     *   page bytes are not a private array.
+     */
+    Tuple getTuple(int i) {
+        Tuple t = tuples[i];
+        if (t == null && isSlotUsed(i)) {
+            ByteBuffer data = m_data;
+            if (data.hasArray()) {
+                t = new Tuple(td, data, m_layout, i);
+            } else {
+                t = new Tuple(td);
+                for (int f = 0; f < td.numFields(); f++) {
+                    int off = fieldOffset(i, f);
+                    if (td.getFieldType(f) == Type.INT_TYPE) {
+                        t.setInt(f, data.getInt(off));
+                    } else {
+                        try {
+                            t.setField(f, td.getFieldType(f).parse(data, off));
+                        } catch (java.text.ParseException e) {
+                            throw new NoSuchElementException("parsing error!");
+                        }
+                    }
+                }
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+            t.setRecordId(new RecordId(pid, i));
+            tuples[i] = t;
         }
-
         return t;
     }
 
@@ -161,64 +305,56 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+        byte[] data = new byte[BufferPool.getPageSize()];
+        writePageData(ByteBuffer.wrap(data));
+        return data;
+    }
 
-                }
-                continue;
-            }
+    // see Page.java for javadocs
+    public void writePageData(ByteBuffer dst) {
+        int start = dst.position();
+        int len = BufferPool.getPageSize();
 
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
+        // start from the page as read: slots that were never materialized
+        // are already in place
+        ByteBuffer orig = m_data.duplicate();
+        orig.position(0);
+        if (orig.limit() > len)
+            orig.limit(len);
+        dst.put(orig);
+        zero(dst, dst.position(), start + len - dst.position());
+
+        writeHeader(dst.duplicate().order(ByteOrder.LITTLE_ENDIAN), start);
+        for (int i=0; i<numSlots; i++) {
+            if (!isSlotUsed(i))
+                clearSlot(dst, start, i);
+            else if (tuples[i] != null)
+                writeSlot(dst, start, i, tuples[i]);
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        int end = start + slotOffset(numSlots);
+        zero(dst, end, start + len - end);
+        dst.position(start + len);
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /** zeros copied into buffers without a backing array; never written */
+    private static final byte[] ZEROS = new byte[1024];
+
+    /** Clears len bytes of buf from index from on. */
+    static void zero(ByteBuffer buf, int from, int len) {
+        if (buf.hasArray()) {
+            int off = buf.arrayOffset() + from;
+            Arrays.fill(buf.array(), off, off + len, (byte) 0);
+        } else {
+            ByteBuffer dst = buf.duplicate();
+            dst.position(from);
+            while (len > 0) {
+                int n = Math.min(len, ZEROS.length);
+                dst.put(ZEROS, 0, n);
+                len -= n;
+            }
         }
-
-        return baos.toByteArray();
     }
 
     /**
@@ -242,9 +378,18 @@ public class HeapPage implements Page {
      *         already empty.
      * @param t The tuple to delete
      */
-    public void deleteTuple(Tuple t) throws DbException {
+    public synchronized void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+    	RecordId rid = t.getRecordId();
+    	if (rid == null || !pid.equals(rid.getPageId()))
+    		throw new DbException("tuple is not on this page");
+    	int slot = rid.tupleno();
+    	if (slot < 0 || slot >= numSlots || !isSlotUsed(slot))
+    		throw new DbException("tuple slot is already empty");
+    	markSlotUsed(slot, false);
+    	tuples[slot] = null;
+    	t.setRecordId(null);
     }
 
     /**
@@ -254,9 +399,37 @@ public class HeapPage implements Page {
      *         is mismatch.
      * @param t The tuple to add.
      */
-    public void insertTuple(Tuple t) throws DbException {
+    public synchronized void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+    	if (!td.equals(t.getTupleDesc()))
+    		throw new DbException("tupledesc is mismatch");
+    	int slot = firstEmptySlot();
+    	if (slot < 0)
+    		throw new DbException("page is full");
+    	markSlotUsed(slot, true);
+    	tuples[slot] = t;
+    	t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * @return true if t can be inserted into this page. Pages holding
+     *   tuples of different sizes also check that t fits.
+     */
+    boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
+    /** @return the first empty slot, or -1 if the page is full */
+    int firstEmptySlot() {
+    	for (int w=0; w<used.length; w++) {
+    		long free = ~used[w];
+    		if (free != 0) {
+    			int slot = (w << 6) + Long.numberOfTrailingZeros(free);
+    			return slot < numSlots ? slot : -1;
+    		}
+    	}
+    	return -1;
     }
 
     /**
@@ -266,6 +439,15 @@ public class HeapPage implements Page {
     public void markDirty(boolean dirty, TransactionId tid) {
         // some code goes here
 	// not necessary for lab1
+    	if (dirty && !m_data.hasArray()) {
+    	    // a page decoded from a file mapping would see its own flush
+    	    // through the mapping; keep a private copy of the page as read
+    	    ByteBuffer copy = ByteBuffer.allocate(m_data.capacity());
+    	    copy.put(m_data.duplicate());
+    	    copy.clear();
+    	    m_data = copy;
+    	}
+    	m_dirtier = dirty ? tid : null;
     }
 
     /**
@@ -274,7 +456,7 @@ public class HeapPage implements Page {
     public TransactionId isDirty() {
         // some code goes here
 	// Not necessary for lab1
-        return null;      
+        return m_dirtier;
     }
 
     /**
@@ -282,10 +464,9 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-    	int count = 0;
-    	for (int i=0; i<getNumTuples(); i++)
-    		if(!isSlotUsed(i))
-    			count++;
+    	int count = numSlots;
+    	for (int w=0; w<used.length; w++)
+    		count -= Long.bitCount(used[w]);
         return count;
     }
 
@@ -296,17 +477,79 @@ public class HeapPage implements Page {
         // some code goes here
     	if (i<0 || i>=numSlots)
     		throw new IllegalArgumentException("Illegal slot number.");
-    	int nbyte = i/8;
-    	int nbit = i%8;
-        return ((header[nbyte] & (1<<nbit)) != 0);
+        return (used[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * @return the first used slot at or after slot from, or -1 if there is
+     *   none. Runs of empty slots are skipped a bitmap word at a time.
+     */
+    int nextUsedSlot(int from) {
+    	if (from >= numSlots)
+    		return -1;
+    	int w = from >>> 6;
+    	long word = used[w] & (-1L << from);
+    	while (word == 0) {
+    		if (++w == used.length)
+    			return -1;
+    		word = used[w];
+    	}
+    	return (w << 6) + Long.numberOfTrailingZeros(word);
     }
 
     /**
      * Abstraction to fill or clear a slot on this page.
      */
-    private void markSlotUsed(int i, boolean value) {
+    void markSlotUsed(int i, boolean value) {
         // some code goes here
         // not necessary for lab1
+    	if (value)
+    		used[i >>> 6] |= 1L << i;
+    	else
+    		used[i >>> 6] &= ~(1L << i);
+    }
+
+    /**
+     * Copies the tuples of the used slots from slot from on into b, until b
+     * is full or the page runs out. If pred is not null, only the tuples
+     * that pass it are copied.
+     * @return the slot to continue from, or -1 if the page has no more
+     *   tuples
+     */
+    int fillBatch(TupleBatch b, int from, Predicate pred) {
+    	int slot = nextUsedSlot(from);
+    	while (slot >= 0 && !b.isFull()) {
+    		if (pred == null || passes(pred, slot))
+    			copySlot(b, slot);
+    		slot = nextUsedSlot(slot + 1);
+    	}
+    	return slot;
+    }
+
+    /**
+     * @return true if the tuple in used slot i passes pred. A tuple not
+     *   created yet is tested on the page bytes and stays uncreated.
+     *   Page formats whose fields are not found through fieldOffset
+     *   override this.
+     */
+    boolean passes(Predicate pred, int i) {
+    	Tuple t = tuples[i];
+    	if (t != null)
+    		return pred.filter(t);
+    	return pred.filter(this, m_data, i);
+    }
+
+    /**
+     * Appends the tuple of used slot i to b, straight from the page bytes.
+     * Page formats whose fields are not found through fieldOffset override
+     * this.
+     */
+    void copySlot(TupleBatch b, int i) {
+    	Tuple t = tuples[i];
+    	if (t != null)
+    		b.add(t);
+    	else
+    		b.addRow(this, m_data, i);
     }
 
     /**
@@ -317,16 +560,17 @@ public class HeapPage implements Page {
     public Iterator<Tuple> iterator() {
         // some code goes here
     	return new Iterator<Tuple>() {
+    	    // the next slot to look at; slots before it were returned or empty
     	    private int tupleNo = 0;
     	    public boolean hasNext() {
-    	    	if ((tupleNo < tuples.length) && (tuples[tupleNo] != null))
-    	    		return true;
-    	    	return false;
+    	    	return nextUsedSlot(tupleNo) >= 0;
     	    }
     	    public Tuple next() throws NoSuchElementException {
-	    		if (!hasNext())
+    	    	int slot = nextUsedSlot(tupleNo);
+	    		if (slot < 0)
 	    		    throw new NoSuchElementException();
-	    		return tuples[tupleNo++];
+	    		tupleNo = slot + 1;
+	    		return getTuple(slot);
     	    }
     	    public void remove() throws UnsupportedOperationException {
     	    	throw new UnsupportedOperationException();
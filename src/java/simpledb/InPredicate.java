@@ -0,0 +1,177 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * InPredicate is true for the tuples whose field equals one of a list of
+ * values. Int values are looked up in a sorted array. String values are
+ * kept as the bytes they are stored as, sorted, and the string of a tuple
+ * is looked up in place, in the page bytes or as getStringBytes returns
+ * it, without creating a String for it.
+ */
+public class InPredicate extends Predicate {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Field[] m_values;
+    private final Type m_type;
+    /** the int values, sorted, if the values are ints */
+    private final int[] m_ints;
+    /** the string values in their stored bytes, sorted, if the values are strings */
+    private final byte[][] m_strings;
+
+    /**
+     * @param field
+     *            field number of passed in tuples to look up
+     * @param values
+     *            the values to look for, all of one type; at least one
+     */
+    public InPredicate(int field, Field... values) {
+        super(field);
+        if (values.length == 0)
+            throw new IllegalArgumentException("no values");
+        m_values = values.clone();
+        m_type = values[0].getType();
+        for (Field v : values) {
+            if (v.getType() != m_type)
+                throw new IllegalArgumentException("values of different types");
+        }
+        if (m_type == Type.INT_TYPE) {
+            m_ints = new int[values.length];
+            for (int i = 0; i < values.length; i++)
+                m_ints[i] = ((IntField) values[i]).getValue();
+            Arrays.sort(m_ints);
+            m_strings = null;
+        } else {
+            m_ints = null;
+            m_strings = new byte[values.length][];
+            for (int i = 0; i < values.length; i++)
+                m_strings[i] = ((StringField) values[i]).getValue().getBytes(StringField.CHARSET);
+            Arrays.sort(m_strings, new Comparator<byte[]>() {
+                public int compare(byte[] a, byte[] b) {
+                    return InPredicate.compare(a, ByteBuffer.wrap(b), 0, b.length);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the sign of comparing v to the len bytes of s from index at
+     *   on, as unsigned bytes
+     */
+    private static int compare(byte[] v, ByteBuffer s, int at, int len) {
+        int n = Math.min(v.length, len);
+        for (int c = 0; c < n; c++) {
+            int d = (v[c] & 0xff) - (s.get(at + c) & 0xff);
+            if (d != 0)
+                return d;
+        }
+        return v.length - len;
+    }
+
+    /** @return the sign of comparing v to s, whose chars all fit a byte */
+    private static int compare(byte[] v, String s) {
+        int n = Math.min(v.length, s.length());
+        for (int c = 0; c < n; c++) {
+            int d = (v[c] & 0xff) - s.charAt(c);
+            if (d != 0)
+                return d;
+        }
+        return v.length - s.length();
+    }
+
+    /** @return true if the len bytes of s from index at on are a value */
+    private boolean contains(ByteBuffer s, int at, int len) {
+        int lo = 0;
+        int hi = m_strings.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(m_strings[mid], s, at, len);
+            if (cmp < 0)
+                lo = mid + 1;
+            else if (cmp > 0)
+                hi = mid - 1;
+            else
+                return true;
+        }
+        return false;
+    }
+
+    /** @return true if s is a value */
+    private boolean contains(String s) {
+        int lo = 0;
+        int hi = m_strings.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(m_strings[mid], s);
+            if (cmp < 0)
+                lo = mid + 1;
+            else if (cmp > 0)
+                hi = mid - 1;
+            else
+                return true;
+        }
+        return false;
+    }
+
+    /** @return the values looked for */
+    public Field[] getValues() {
+        return m_values.clone();
+    }
+
+    public Predicate bind(TupleDesc td) {
+        checkField(td, m_type);
+        return this;
+    }
+
+    double cost() {
+        if (m_ints != null)
+            return 1 + Math.log(m_ints.length) / Math.log(2) / 2;
+        return 4 + Math.log(m_strings.length) / Math.log(2) * 2;
+    }
+
+    public boolean filter(Tuple t) {
+        if (m_ints != null)
+            return Arrays.binarySearch(m_ints, t.getInt(getField())) >= 0;
+        ByteBuffer s = StringEvaluator.SCRATCH.get();
+        int len = t.getStringBytes(getField(), s.array());
+        return contains(s, 0, len);
+    }
+
+    boolean filter(ByteBuffer data, int off) {
+        if (m_ints != null)
+            return Arrays.binarySearch(m_ints, data.getInt(off)) >= 0;
+        int len = data.getInt(off);
+        if (len < 0 || len > Type.STRING_LEN)
+            throw new java.util.NoSuchElementException("parsing error!");
+        return contains(data, off + 4, len);
+    }
+
+    public void filter(TupleBatch b) {
+        int[] sel = b.getSelection();
+        int n = b.numSelected();
+        int kept = 0;
+        if (m_ints != null) {
+            int[] col = b.getIntColumn(getField());
+            for (int k = 0; k < n; k++) {
+                int r = sel[k];
+                if (Arrays.binarySearch(m_ints, col[r]) >= 0)
+                    sel[kept++] = r;
+            }
+        } else {
+            String[] col = b.getStringColumn(getField());
+            for (int k = 0; k < n; k++) {
+                int r = sel[k];
+                if (contains(col[r]))
+                    sel[kept++] = r;
+            }
+        }
+        b.setSelection(sel, kept);
+    }
+
+    public String toString() {
+        return "f = " + getField() + " IN " + Arrays.toString(m_values);
+    }
+}
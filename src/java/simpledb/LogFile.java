@@ -2,6 +2,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.lang.reflect.*;
 
@@ -51,8 +52,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT and BULK
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -67,6 +68,18 @@ of the record is an integer count of the number of transactions, as well
 as a long integer transaction id and a long integer first record offset
 for each active transaction.
 
+<li> BULK records describe a run of pages appended to a table by a bulk
+load (see HeapFile.bulkLoad()) instead of one UPDATE record per page.
+The record holds the integer table id, the integer number of the first
+appended page and the integer page count.  The pages did not exist
+before, so undoing the record would mean truncating the table back to
+its first appended page.  For now BULK records are only written:
+rollback() and recover() are not implemented and do not act on them,
+so a bulk load whose transaction does not commit is not undone.  A BULK
+record never needs to be redone: bulkLoad forces the appended pages to
+the table before it returns, so they are on disk before their
+transaction can commit.
+
 </ul>
 
 */
@@ -82,6 +95,7 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int BULK_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
@@ -93,6 +107,9 @@ public class LogFile {
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
 
+    // UPDATE records are assembled here and written with one call
+    private ByteBuffer recordBuf; //protected by this
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -207,18 +224,57 @@ public class LogFile {
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
+        ByteBuffer buf = recordBuffer(INT_SIZE + LONG_SIZE
+                                      + pageDataSize(before) + pageDataSize(after)
+                                      + LONG_SIZE);
+        buf.putInt(UPDATE_RECORD);
+        buf.putLong(tid.getId());
+
+        putPageData(buf,before);
+        putPageData(buf,after);
+        buf.putLong(currentOffset);
+        raf.write(buf.array(), 0, buf.position());
         currentOffset = raf.getFilePointer();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
+    /** Write a BULK record for pages appended to a table by a bulk load,
+        and force the log to disk.  The record must be forced before the
+        pages are written.
+        @param tid The transaction performing the load
+        @param tableId The table the pages are appended to
+        @param firstPage The number of the first appended page
+        @param numPages The number of appended pages
+
+        @see simpledb.HeapFile#bulkLoad
+    */
+    public synchronized void logBulkAppend(TransactionId tid, int tableId,
+                                           int firstPage, int numPages)
+        throws IOException {
+        Debug.log("BULK " + tid.getId() + " table " + tableId + " pages "
+                  + firstPage + "+" + numPages);
+        preAppend();
+        ByteBuffer buf = recordBuffer(INT_SIZE + LONG_SIZE + 3 * INT_SIZE
+                                      + LONG_SIZE);
+        buf.putInt(BULK_RECORD);
+        buf.putLong(tid.getId());
+        buf.putInt(tableId);
+        buf.putInt(firstPage);
+        buf.putInt(numPages);
+        buf.putLong(currentOffset);
+        raf.write(buf.array(), 0, buf.position());
+        currentOffset = raf.getFilePointer();
+        force();
+    }
+
     void writePageData(RandomAccessFile raf, Page p) throws IOException{
+        ByteBuffer buf = recordBuffer(pageDataSize(p));
+        putPageData(buf, p);
+        raf.write(buf.array(), 0, buf.position());
+    }
+
+    void putPageData(ByteBuffer buf, Page p) {
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
 
@@ -233,19 +289,57 @@ public class LogFile {
         String pageClassName = p.getClass().getName();
         String idClassName = pid.getClass().getName();
 
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+        putUTF(buf, pageClassName);
+        putUTF(buf, idClassName);
 
-        raf.writeInt(pageInfo.length);
+        buf.putInt(pageInfo.length);
         for (int i = 0; i < pageInfo.length; i++) {
-            raf.writeInt(pageInfo[i]);
+            buf.putInt(pageInfo[i]);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        int lengthAt = buf.position();
+        buf.putInt(0);
+        p.writePageData(buf);
+        buf.putInt(lengthAt, buf.position() - lengthAt - INT_SIZE);
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
+    /** @return an upper bound on the bytes putPageData writes for p */
+    int pageDataSize(Page p) {
+        PageId pid = p.getId();
+        return 2 + 3 * p.getClass().getName().length()
+            + 2 + 3 * pid.getClass().getName().length()
+            + INT_SIZE * (1 + pid.serialize().length)
+            + INT_SIZE + BufferPool.getPageSize();
+    }
+
+    /** @return the record buffer, cleared and with room for size bytes */
+    ByteBuffer recordBuffer(int size) {
+        if (recordBuf == null || recordBuf.capacity() < size)
+            recordBuf = ByteBuffer.allocate(size);
+        recordBuf.clear();
+        return recordBuf;
+    }
+
+    /** Writes s in the format of DataOutput.writeUTF. */
+    static void putUTF(ByteBuffer buf, String s) {
+        int lengthAt = buf.position();
+        buf.putShort((short) 0);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                buf.put((byte) c);
+            } else if (c <= 0x07FF) {
+                buf.put((byte) (0xC0 | ((c >> 6) & 0x1F)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            } else {
+                buf.put((byte) (0xE0 | ((c >> 12) & 0x0F)));
+                buf.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        buf.putShort(lengthAt, (short) (buf.position() - lengthAt - 2));
+    }
+
     Page readPageData(RandomAccessFile raf) throws IOException {
         PageId pid;
         Page newPage = null;
@@ -265,7 +359,14 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[1] == byte[].class)
+                    pageConst = c;
+            }
+            if (pageConst == null)
+                throw new ClassNotFoundException("no (PageId, byte[]) constructor in " + pageClassName);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -275,7 +376,7 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -429,6 +530,11 @@ public class LogFile {
                 case BEGIN_RECORD:
                     tidToFirstLogRecord.put(record_tid,newStart);
                     break;
+                case BULK_RECORD:
+                    logNew.writeInt(raf.readInt());
+                    logNew.writeInt(raf.readInt());
+                    logNew.writeInt(raf.readInt());
+                    break;
                 }
 
                 //all xactions finish with a pointer
@@ -0,0 +1,96 @@
+package simpledb;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU-K page replacement (O'Neil, O'Neil and Weikum).
+ * <p>
+ * The policy remembers the times of the last K references to every
+ * resident page and evicts the page whose K-th most recent reference is
+ * the oldest. Pages referenced fewer than K times have an infinite
+ * backward K-distance and go first, least recently used first. With K = 2
+ * a page read once by a scan loses against a page that is looked up
+ * repeatedly, which plain LRU gets wrong.
+ * <p>
+ * Each history is guarded by its own monitor, so concurrent hits on
+ * different pages do not contend.
+ */
+public class LruKReplacementPolicy implements PageReplacementPolicy {
+
+    public static final int DEFAULT_K = 2;
+
+    private final int m_k;
+    /** logical clock; 0 means "no reference" in a history */
+    private final AtomicLong m_clock;
+    /** last K reference times per page, most recent first */
+    private final ConcurrentHashMap<PageId, long[]> m_history;
+
+    public LruKReplacementPolicy() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k the number of references remembered per page; must be at least 1
+     */
+    public LruKReplacementPolicy(int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("K must be at least 1");
+        m_k = k;
+        m_clock = new AtomicLong();
+        m_history = new ConcurrentHashMap<PageId, long[]>();
+    }
+
+    public void pageLoaded(PageId pid) {
+        long[] hist = m_history.get(pid);
+        if (hist == null) {
+            hist = new long[m_k];
+            m_history.put(pid, hist);
+        }
+        reference(hist);
+    }
+
+    public void pageAccessed(PageId pid) {
+        long[] hist = m_history.get(pid);
+        if (hist != null)
+            reference(hist);
+    }
+
+    public void pageRemoved(PageId pid) {
+        m_history.remove(pid);
+    }
+
+    public PageId chooseVictim(Candidates candidates) {
+        PageId victim = null;
+        long victimKth = Long.MAX_VALUE;
+        long victimLast = Long.MAX_VALUE;
+        for (Map.Entry<PageId, long[]> e : m_history.entrySet()) {
+            long[] hist = e.getValue();
+            long kth, last;
+            synchronized (hist) {
+                kth = hist[m_k - 1];
+                last = hist[0];
+            }
+            if (kth > victimKth || (kth == victimKth && last >= victimLast))
+                continue;
+            if (!candidates.isEvictable(e.getKey()))
+                continue;
+            victim = e.getKey();
+            victimKth = kth;
+            victimLast = last;
+        }
+        return victim;
+    }
+
+    private void reference(long[] hist) {
+        synchronized (hist) {
+            System.arraycopy(hist, 0, hist, 1, m_k - 1);
+            hist[0] = m_clock.incrementAndGet();
+        }
+    }
+
+    public String toString() {
+        return "LRU-" + m_k;
+    }
+}
@@ -0,0 +1,52 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * NotPredicate is true for the tuples its term is false for.
+ */
+public class NotPredicate extends Predicate {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate m_term;
+
+    public NotPredicate(Predicate term) {
+        super(-1);
+        m_term = term;
+    }
+
+    /** @return the negated predicate */
+    public Predicate getTerm() {
+        return m_term;
+    }
+
+    public Predicate bind(TupleDesc td) {
+        m_term.bind(td);
+        return this;
+    }
+
+    double cost() {
+        return m_term.cost();
+    }
+
+    public boolean filter(Tuple t) {
+        return !m_term.filter(t);
+    }
+
+    boolean filter(HeapPage page, ByteBuffer data, int slot) {
+        return !m_term.filter(page, data, slot);
+    }
+
+    /** The rows the term turns down stay live. */
+    public void filter(TupleBatch b) {
+        int[] live = CompoundPredicate.selection(b);
+        m_term.filter(b);
+        int kept = CompoundPredicate.minus(live, live.length, b.getSelection(), b.numSelected());
+        b.setSelection(live, kept);
+    }
+
+    public String toString() {
+        return "NOT " + m_term;
+    }
+}
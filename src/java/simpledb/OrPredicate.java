@@ -0,0 +1,66 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * OrPredicate is true for the tuples any of its terms is true for. It
+ * stops at the first term that is true, and runs first the terms that are
+ * cheap and let many tuples through.
+ */
+public class OrPredicate extends CompoundPredicate {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param terms
+     *            the predicates one of which must hold; at least one
+     */
+    public OrPredicate(Predicate... terms) {
+        super(terms);
+    }
+
+    /** Cost paid per tuple the term lets through. */
+    double rank(Term t) {
+        return t.m_cost / Math.max(1e-6, t.selectivity());
+    }
+
+    boolean eval(Tuple tup, HeapPage page, ByteBuffer data, int slot) {
+        boolean pass = false;
+        for (Term t : m_terms) {
+            t.m_seen++;
+            if (test(t.m_pred, tup, page, data, slot)) {
+                t.m_passed++;
+                pass = true;
+                break;
+            }
+        }
+        evaluated(1);
+        return pass;
+    }
+
+    /**
+     * Each term only looks at the rows no term before it kept; the rows
+     * kept by any term are live afterwards.
+     */
+    public void filter(TupleBatch b) {
+        int[] live = selection(b);
+        int[] rest = live.clone();
+        int left = rest.length;
+        for (Term t : m_terms) {
+            if (left == 0)
+                break;
+            b.setSelection(rest, left);
+            t.m_pred.filter(b);
+            t.m_seen += left;
+            t.m_passed += b.numSelected();
+            left = minus(rest, left, b.getSelection(), b.numSelected());
+        }
+        int kept = minus(live, live.length, rest, left);
+        b.setSelection(live, kept);
+        evaluated(live.length);
+    }
+
+    public String toString() {
+        return toString("OR");
+    }
+}
@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.nio.ByteBuffer;
+
 /**
  * Page is the interface used to represent pages that are resident in the
  * BufferPool.  Typically, DbFiles will read and write pages from disk.
@@ -7,7 +9,7 @@ package simpledb;
  * Pages may be "dirty", indicating that they have been modified since they
  * were last written out to disk.
  *
- * For recovery purposes, pages MUST have a single constructor of the form:
+ * For recovery purposes, pages MUST have a constructor of the form:
  *     Page(PageId id, byte[] data)
  */
 public interface Page {
@@ -46,6 +48,16 @@ public interface Page {
 
     public byte[] getPageData();
 
+    /**
+     * Writes the same bytes as getPageData() to dst, starting at its current
+     * position, without allocating a new array. The position of dst is
+     * advanced past the page.
+     *
+     * @param dst the buffer to write to; it must have room for
+     *   BufferPool.getPageSize() bytes
+     */
+    public void writePageData(ByteBuffer dst);
+
     /** Provide a representation of this page before any modifications were made
         to it.  Used by recovery.
     */
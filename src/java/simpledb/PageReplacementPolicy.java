@@ -0,0 +1,60 @@
+package simpledb;
+
+/**
+ * PageReplacementPolicy decides which page the BufferPool gives up when it
+ * needs room for a new one.
+ * <p>
+ * The BufferPool tells the policy about every page that enters or leaves
+ * the pool and about every hit on a resident page. The policy only ever
+ * proposes victims; the BufferPool is responsible for flushing and
+ * removing them.
+ * <p>
+ * Locking: pageLoaded, pageRemoved and chooseVictim are always called
+ * while holding the BufferPool's monitor. pageAccessed is called on every
+ * hit without any pool-wide lock, possibly from many threads at once, and
+ * must be safe to run concurrently with the other methods.
+ *
+ * @see BufferPool
+ * @see ClockReplacementPolicy
+ * @see LruKReplacementPolicy
+ */
+public interface PageReplacementPolicy {
+
+    /**
+     * Lets the BufferPool veto victims, e.g. dirty pages when running in
+     * NO STEAL mode.
+     */
+    public interface Candidates {
+        /** @return true if the page may be evicted right now */
+        public boolean isEvictable(PageId pid);
+    }
+
+    /**
+     * Called after a page has been read from disk and added to the pool.
+     * @param pid the id of the new page
+     */
+    public void pageLoaded(PageId pid);
+
+    /**
+     * Called when a page that is already in the pool is requested again.
+     * @param pid the id of the requested page
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Called when a page leaves the pool, either because it was evicted or
+     * because it was discarded.
+     * @param pid the id of the removed page
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Picks the page that should be evicted next. The returned page is
+     * still resident; it is removed only once the BufferPool calls
+     * {@link #pageRemoved}.
+     *
+     * @param candidates tells which resident pages may be evicted
+     * @return the id of the victim, or null if no resident page is evictable
+     */
+    public PageId chooseVictim(Candidates candidates);
+}
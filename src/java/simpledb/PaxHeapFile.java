@@ -0,0 +1,34 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * PaxHeapFile is a HeapFile whose pages are stored in the PAX layout (see
+ * PaxPage): each page keeps the values of one field together instead of
+ * whole rows. Everything but the layout of the bytes within a page, like
+ * page numbering, free space tracking and I/O, works as in HeapFile.
+ * <p>
+ * The files are not interchangeable with HeapFiles. A PaxHeapFile is
+ * written from a text file by HeapFileEncoder.convertPax (the pax format
+ * of the SimpleDb convert command), or filled with insertTuple or
+ * bulkLoad, e.g. from a scan of an existing table.
+ *
+ * @see PaxPage
+ */
+public class PaxHeapFile extends HeapFile {
+
+    public PaxHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /** @see HeapFile#HeapFile(File, TupleDesc, boolean) */
+    public PaxHeapFile(File f, TupleDesc td, boolean mapped) {
+        super(f, td, mapped);
+    }
+
+    HeapPage createPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        return new PaxPage(pid, data);
+    }
+}
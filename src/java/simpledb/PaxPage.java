@@ -0,0 +1,63 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * PaxPage is a HeapPage stored in the PAX layout. The page has the same
+ * size, slot count and header bitmap as a HeapPage, but the tuples are not
+ * stored as rows: the space after the header is split into one minipage
+ * per field, and minipage f holds field f of every slot, one after the
+ * other.
+ * <p>
+ * Since fields are decoded on first use, a scan that only looks at a few
+ * fields of a tuple only touches the bytes of those minipages.
+ *
+ * @see PaxHeapFile
+ */
+public class PaxPage extends HeapPage {
+
+    private final int[] m_fieldLen;
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk.
+     * @see HeapPage#HeapPage(HeapPageId, byte[])
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a PaxPage from a buffer holding the page.
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    public PaxPage(HeapPageId id, ByteBuffer data) throws IOException {
+        super(id, data);
+        int fields = td.numFields();
+        // index of the first byte of the minipage of each field
+        int[] columnStart = new int[fields];
+        m_fieldLen = new int[fields];
+        for (int f = 0; f < fields; f++) {
+            // the minipages of the fields before f hold numSlots values each
+            columnStart[f] = m_headerSize + numSlots * td.getFieldOffset(f);
+            m_fieldLen[f] = td.getFieldType(f).getLen();
+        }
+        m_layout = new Layout(columnStart, m_fieldLen);
+    }
+
+    HeapPage reread(ByteBuffer data) throws IOException {
+        return new PaxPage(pid, data);
+    }
+
+    void clearSlot(ByteBuffer dst, int start, int i) {
+        for (int f = 0; f < m_fieldLen.length; f++)
+            zero(dst, start + fieldOffset(i, f), m_fieldLen[f]);
+    }
+
+    void writeSlot(ByteBuffer dst, int start, int i, Tuple t) {
+        for (int f = 0; f < m_fieldLen.length; f++) {
+            dst.position(start + fieldOffset(i, f));
+            t.serializeField(f, dst);
+        }
+    }
+}
@@ -1,9 +1,21 @@
 package simpledb;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
 /**
  * Predicate compares tuples to a specified Field value.
+ * <p>
+ * A predicate is turned once into an Evaluator specialized for the type of
+ * its operand and for its operator, so that comparing a tuple takes neither
+ * a Field nor a switch on the operator. Besides tuples, an evaluator
+ * compares a field stored in page bytes and the rows of a TupleBatch.
+ * Strings are compared as the bytes they are stored as, which orders them
+ * as String.compareTo does for the characters a page can hold.
+ * <p>
+ * Subclasses combine predicates (AndPredicate, OrPredicate, NotPredicate)
+ * or test a field against more than one value (InPredicate,
+ * BetweenPredicate); they override the filter methods.
  */
 public class Predicate implements Serializable {
 
@@ -43,6 +55,12 @@ public class Predicate implements Serializable {
         }
 
     }
+
+    private final int m_field;
+    private final Op m_op;
+    private final Field m_operand;
+    /** the comparison, built on first use */
+    private transient Evaluator m_eval;
     
     /**
      * Constructor.
@@ -56,6 +74,24 @@ public class Predicate implements Serializable {
      */
     public Predicate(int field, Op op, Field operand) {
         // some code goes here
+        if (op == null || operand == null)
+            throw new IllegalArgumentException("op and operand must be given");
+        m_field = field;
+        m_op = op;
+        m_operand = operand;
+    }
+
+    /**
+     * Constructor for subclasses that do not compare a field to a single
+     * operand; getOp and getOperand return null for them.
+     *
+     * @param field
+     *            the field tested, or -1 if there is no single one
+     */
+    protected Predicate(int field) {
+        m_field = field;
+        m_op = null;
+        m_operand = null;
     }
 
     /**
@@ -64,7 +100,7 @@ public class Predicate implements Serializable {
     public int getField()
     {
         // some code goes here
-        return -1;
+        return m_field;
     }
 
     /**
@@ -73,7 +109,7 @@ public class Predicate implements Serializable {
     public Op getOp()
     {
         // some code goes here
-        return null;
+        return m_op;
     }
     
     /**
@@ -82,7 +118,55 @@ public class Predicate implements Serializable {
     public Field getOperand()
     {
         // some code goes here
-        return null;
+        return m_operand;
+    }
+
+    /**
+     * Checks that this predicate can compare tuples of schema td.
+     *
+     * @return this predicate
+     * @throws IllegalArgumentException if td has no such field, or the
+     *   field is not of the type of the operand
+     */
+    public Predicate bind(TupleDesc td) {
+        checkField(td, m_operand.getType());
+        evaluator();
+        return this;
+    }
+
+    /**
+     * @throws IllegalArgumentException if td has no field getField(), or
+     *   it is not of the given type
+     */
+    void checkField(TupleDesc td, Type type) {
+        if (m_field < 0 || m_field >= td.numFields())
+            throw new IllegalArgumentException("no field " + m_field + " in " + td);
+        if (td.getFieldType(m_field) != type)
+            throw new IllegalArgumentException("field " + m_field + " is not of type " + type);
+    }
+
+    /**
+     * @return an estimate of the work of evaluating this predicate once,
+     *   in units of an int comparison. Compound predicates use it to
+     *   decide which term to run first.
+     */
+    double cost() {
+        if (m_operand.getType() == Type.INT_TYPE)
+            return 1;
+        return m_op == Op.LIKE ? 8 : 4;
+    }
+
+    /** @return the evaluator of this predicate */
+    Evaluator evaluator() {
+        Evaluator e = m_eval;
+        if (e == null) {
+            if (m_operand.getType() == Type.INT_TYPE)
+                e = IntEvaluator.create(m_field, m_op, ((IntField) m_operand).getValue());
+            else
+                e = new StringEvaluator(m_field, m_op, ((StringField) m_operand).getValue());
+            m_eval = e;
+        }
+        return e;
     }
     
     /**
@@ -97,7 +181,31 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
-        return false;
+        return evaluator().eval(t);
+    }
+
+    /**
+     * Compares the field stored in data at index off, in the format of
+     * Field.serialize, to the operand.
+     */
+    boolean filter(ByteBuffer data, int off) {
+        return evaluator().eval(data, off);
+    }
+
+    /**
+     * Compares the tuple in slot of page, whose bytes are data, without
+     * creating a Tuple for it. The field is found through
+     * HeapPage.fieldOffset.
+     */
+    boolean filter(HeapPage page, ByteBuffer data, int slot) {
+        return filter(data, page.fieldOffset(slot, m_field));
+    }
+
+    /**
+     * Keeps only the live rows of b for which the comparison is true.
+     */
+    public void filter(TupleBatch b) {
+        b.select(m_field, m_op, m_operand);
     }
 
     /**
@@ -106,6 +214,155 @@ public class Predicate implements Serializable {
      */
     public String toString() {
         // some code goes here
-        return "";
+        return "f = " + m_field + " op = " + m_op + " operand = " + m_operand;
+    }
+
+    /**
+     * Evaluator compares one field of a tuple to a constant. There is a
+     * subclass for every type and operator, so that a call does only the
+     * comparison.
+     */
+    abstract static class Evaluator {
+        final int m_field;
+
+        Evaluator(int field) {
+            m_field = field;
+        }
+
+        /** @return true if the field of t compares true */
+        abstract boolean eval(Tuple t);
+
+        /** @return true if the field stored in data at index off compares true */
+        abstract boolean eval(ByteBuffer data, int off);
+    }
+
+    /** Compares an int field; subclasses only implement test. */
+    abstract static class IntEvaluator extends Evaluator {
+        final int m_value;
+
+        IntEvaluator(int field, int value) {
+            super(field);
+            m_value = value;
+        }
+
+        abstract boolean test(int v);
+
+        final boolean eval(Tuple t) {
+            return test(t.getInt(m_field));
+        }
+
+        final boolean eval(ByteBuffer data, int off) {
+            return test(data.getInt(off));
+        }
+
+        static IntEvaluator create(int field, Op op, int value) {
+            switch (op) {
+            case EQUALS:
+            case LIKE:
+                return new IntEvaluator(field, value) {
+                    boolean test(int v) { return v == m_value; }
+                };
+            case NOT_EQUALS:
+                return new IntEvaluator(field, value) {
+                    boolean test(int v) { return v != m_value; }
+                };
+            case GREATER_THAN:
+                return new IntEvaluator(field, value) {
+                    boolean test(int v) { return v > m_value; }
+                };
+            case GREATER_THAN_OR_EQ:
+                return new IntEvaluator(field, value) {
+                    boolean test(int v) { return v >= m_value; }
+                };
+            case LESS_THAN:
+                return new IntEvaluator(field, value) {
+                    boolean test(int v) { return v < m_value; }
+                };
+            case LESS_THAN_OR_EQ:
+                return new IntEvaluator(field, value) {
+                    boolean test(int v) { return v <= m_value; }
+                };
+            }
+            throw new IllegalStateException("impossible to reach here");
+        }
+    }
+
+    /**
+     * Compares a string field as bytes, copied from the tuple or read in
+     * place from page bytes. The operator is turned into the set of
+     * outcomes of the comparison that make it true.
+     */
+    static class StringEvaluator extends Evaluator {
+        private final byte[] m_value;
+        private final boolean m_like;
+        private final boolean m_less, m_equal, m_greater;
+        /**
+         * holds the field of a tuple being compared; one per thread, since
+         * a predicate may be shared by scans in several threads
+         */
+        static final ThreadLocal<ByteBuffer> SCRATCH = new ThreadLocal<ByteBuffer>() {
+            protected ByteBuffer initialValue() {
+                return ByteBuffer.wrap(new byte[Type.STRING_LEN]);
+            }
+        };
+
+        StringEvaluator(int field, Op op, String value) {
+            super(field);
+            int len = Math.min(value.length(), Type.STRING_LEN);
+            m_value = new byte[len];
+            for (int c = 0; c < len; c++)
+                m_value[c] = (byte) value.charAt(c);
+            m_like = op == Op.LIKE;
+            m_less = op == Op.LESS_THAN || op == Op.LESS_THAN_OR_EQ || op == Op.NOT_EQUALS;
+            m_equal = op == Op.EQUALS || op == Op.LESS_THAN_OR_EQ || op == Op.GREATER_THAN_OR_EQ;
+            m_greater = op == Op.GREATER_THAN || op == Op.GREATER_THAN_OR_EQ || op == Op.NOT_EQUALS;
+        }
+
+        boolean eval(Tuple t) {
+            ByteBuffer s = SCRATCH.get();
+            int len = t.getStringBytes(m_field, s.array());
+            return m_like ? contains(s, 0, len) : outcome(compare(s, 0, len));
+        }
+
+        /** Compares the string stored at index off of data in place. */
+        boolean eval(ByteBuffer data, int off) {
+            int len = data.getInt(off);
+            if (len < 0 || len > Type.STRING_LEN)
+                throw new java.util.NoSuchElementException("parsing error!");
+            return m_like ? contains(data, off + 4, len) : outcome(compare(data, off + 4, len));
+        }
+
+        private boolean outcome(int cmp) {
+            return cmp < 0 ? m_less : cmp > 0 ? m_greater : m_equal;
+        }
+
+        /**
+         * @return the sign of comparing the len bytes of s from index at on
+         *   to the operand
+         */
+        private int compare(ByteBuffer s, int at, int len) {
+            byte[] v = m_value;
+            int n = Math.min(len, v.length);
+            for (int c = 0; c < n; c++) {
+                int d = (s.get(at + c) & 0xff) - (v[c] & 0xff);
+                if (d != 0)
+                    return d;
+            }
+            return len - v.length;
+        }
+
+        /** @return true if the len bytes of s from index from on contain the operand */
+        private boolean contains(ByteBuffer s, int from, int len) {
+            byte[] v = m_value;
+            outer:
+            for (int at = from; at + v.length <= from + len; at++) {
+                for (int c = 0; c < v.length; c++) {
+                    if (s.get(at + c) != v[c])
+                        continue outer;
+                }
+                return true;
+            }
+            return false;
+        }
     }
 }
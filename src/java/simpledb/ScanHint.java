@@ -0,0 +1,160 @@
+package simpledb;
+
+/**
+ * ScanHint tells the BufferPool that pages are being requested by one
+ * sequential scan.
+ * <p>
+ * On a file that is large compared to the pool, the pages the scan brings
+ * into the pool are remembered on a small ring. Once the ring is full and
+ * the pool needs room, the scan recycles the frame of its own oldest page
+ * instead of asking the replacement policy for a victim, so a single big
+ * scan cannot flush the hot working set of everybody else.
+ * <p>
+ * The hint also watches the page numbers the scan asks for. Once the scan
+ * has read SEQUENTIAL_RUN consecutive pages, it is told to read the next
+ * pages ahead, up to the read-ahead window, in batches of at least half a
+ * window.
+ * <p>
+ * Without read-ahead, a scan that misses on a page reads it together with
+ * the pages after it, up to the hint's range size, in one readPages call.
+ * A hint belongs to one scan and must not be shared between
+ * threads; the ring is only touched while holding the BufferPool's monitor.
+ *
+ * @see BufferPool#newScanHint
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, ScanHint)
+ * @see BufferPool#prefetchPages
+ */
+public class ScanHint {
+
+    /** Consecutive page requests after which a scan counts as sequential. */
+    public static final int SEQUENTIAL_RUN = 2;
+
+    private final PageId[] m_ring;
+    private int m_next;
+    private final int m_window;
+    private final int m_rangePages;
+    private int m_lastPage;
+    private int m_run;
+    /** pages below this number have already been handed to read-ahead */
+    private int m_aheadEnd;
+
+    /**
+     * @param ringPages the number of frames this scan may keep for itself
+     */
+    public ScanHint(int ringPages) {
+        this(ringPages, 0);
+        if (ringPages < 1)
+            throw new IllegalArgumentException("ring must hold at least one page");
+    }
+
+    /**
+     * @param ringPages the number of frames this scan may keep for itself,
+     *   or 0 if the scan should use the pool like everybody else
+     * @param window the number of pages to read ahead of the scan, or 0 to
+     *   turn read-ahead off
+     */
+    public ScanHint(int ringPages, int window) {
+        this(ringPages, window, 1);
+    }
+
+    /**
+     * @param ringPages the number of frames this scan may keep for itself,
+     *   or 0 if the scan should use the pool like everybody else
+     * @param window the number of pages to read ahead of the scan, or 0 to
+     *   turn read-ahead off
+     * @param rangePages the number of pages the scan reads at once when it
+     *   misses on a page; 1 to read pages one at a time
+     */
+    public ScanHint(int ringPages, int window, int rangePages) {
+        if (ringPages < 0 || window < 0)
+            throw new IllegalArgumentException("negative ring or window size");
+        if (rangePages < 1)
+            throw new IllegalArgumentException("range must hold at least one page");
+        m_ring = new PageId[ringPages];
+        m_next = 0;
+        m_window = window;
+        m_rangePages = rangePages;
+        m_lastPage = -1;
+    }
+
+    /** @return the number of frames on the ring */
+    public int getRingSize() {
+        return m_ring.length;
+    }
+
+    /** @return the number of pages read ahead of the scan */
+    public int getReadAheadWindow() {
+        return m_window;
+    }
+
+    /**
+     * @return the number of pages read at once when the scan misses on a
+     *   page
+     */
+    public int getRangePages() {
+        return m_rangePages;
+    }
+
+    /**
+     * @return the page whose frame the scan should give up next, or null
+     *   while the ring has not filled up yet
+     */
+    PageId recycleCandidate() {
+        return recycleCandidate(0);
+    }
+
+    /**
+     * @return the i-th oldest page on the ring, or null while the ring has
+     *   not filled up yet. The scan gives up a younger page when the older
+     *   ones are still in use, e.g. pinned.
+     */
+    PageId recycleCandidate(int i) {
+        if (m_ring.length == 0)
+            return null;
+        return m_ring[(m_next + i) % m_ring.length];
+    }
+
+    /**
+     * Drops the i-th oldest page from the ring, after its frame was given
+     * up. The pages older than it move up one place, so that the next
+     * page added takes the freed place and the ring stays in read order.
+     */
+    void remove(int i) {
+        for (int k = i; k > 0; k--)
+            m_ring[(m_next + k) % m_ring.length] = m_ring[(m_next + k - 1) % m_ring.length];
+        m_ring[m_next] = null;
+    }
+
+    /** Remember a page that this scan read into the pool. */
+    void add(PageId pid) {
+        if (m_ring.length == 0)
+            return;
+        m_ring[m_next] = pid;
+        m_next = (m_next + 1) % m_ring.length;
+    }
+
+    /**
+     * Records that the scan requests page pgNo.
+     *
+     * @return the first page to read ahead now, or -1 if nothing should be
+     *   read ahead. The pages from there up to pgNo + window (inclusive)
+     *   should be prefetched.
+     */
+    public int readAhead(int pgNo) {
+        if (pgNo == m_lastPage + 1) {
+            m_run++;
+        } else {
+            m_run = 1;
+            m_aheadEnd = 0;
+        }
+        m_lastPage = pgNo;
+        if (m_window == 0 || m_run < SEQUENTIAL_RUN)
+            return -1;
+        int start = Math.max(m_aheadEnd, pgNo + 1);
+        int end = pgNo + 1 + m_window;
+        if (end - start < Math.max(1, m_window / 2))
+            return -1;
+        m_aheadEnd = end;
+        return start;
+    }
+}
@@ -5,9 +5,14 @@ import java.util.*;
 /**
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
- * disk).
+ * disk). It can also hand over tuples a batch at a time, straight from the
+ * pages when the table's file supports it.
+ * <p>
+ * A scan given a Predicate only returns the tuples that pass it. On a
+ * HeapFile the predicate is evaluated on the page bytes, before tuples are
+ * created; on other files the scan filters the tuples itself.
  */
-public class SeqScan implements DbIterator {
+public class SeqScan implements DbIterator, BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -31,6 +36,11 @@ public class SeqScan implements DbIterator {
     private int m_tableId;
     private String m_tbAlias;
     private DbFileIterator m_dbItr;
+    private Predicate m_pred;
+    /** the predicate the scan applies itself, if it could not push it down */
+    private Predicate m_filter;
+    /** the next tuple that passed m_filter */
+    private Tuple m_next;
     
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // some code goes here
@@ -39,6 +49,27 @@ public class SeqScan implements DbIterator {
     	m_tbAlias = tableAlias;
     }
 
+    /**
+     * Creates a sequential scan that only returns the tuples that pass
+     * pred.
+     *
+     * @param pred
+     *            the predicate tuples must pass, over the fields of the
+     *            table; null to return every tuple.
+     * @see #SeqScan(TransactionId, int, String)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, Predicate pred) {
+        this(tid, tableid, tableAlias);
+        m_pred = pred;
+    }
+
+    /**
+     * @return the predicate tuples must pass, or null
+     */
+    public Predicate getPredicate() {
+        return m_pred;
+    }
+
     /**
      * @return
      *       return the table name of the table the operator scans. This should
@@ -81,7 +112,17 @@ public class SeqScan implements DbIterator {
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-    	m_dbItr = Database.getCatalog().getDatabaseFile(m_tableId).iterator(m_tid);
+    	DbFile file = Database.getCatalog().getDatabaseFile(m_tableId);
+    	m_filter = null;
+    	m_next = null;
+    	if (m_pred == null) {
+    		m_dbItr = file.iterator(m_tid);
+    	} else if (file instanceof HeapFile) {
+    		m_dbItr = ((HeapFile) file).iterator(m_tid, m_pred);
+    	} else {
+    		m_filter = m_pred.bind(file.getTupleDesc());
+    		m_dbItr = file.iterator(m_tid);
+    	}
     	m_dbItr.open();
     	
     }
@@ -110,17 +151,42 @@ public class SeqScan implements DbIterator {
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        if(m_dbItr != null)
+        if (m_dbItr == null)
+        	return false;
+        if (m_filter == null)
         	return m_dbItr.hasNext();
-    	return false;
+        while (m_next == null && m_dbItr.hasNext()) {
+        	Tuple t = m_dbItr.next();
+        	if (m_filter.filter(t))
+        		m_next = t;
+        }
+        return m_next != null;
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
-    	if (hasNext())
+    	if (!hasNext())
+    		throw new NoSuchElementException();
+    	if (m_filter == null)
     		return m_dbItr.next();
-    	throw new NoSuchElementException();
+    	Tuple t = m_next;
+    	m_next = null;
+    	return t;
+    }
+
+    /**
+     * Fills b with the next tuples of the table, from the file's own batch
+     * iterator if it has one.
+     */
+    public boolean nextBatch(TupleBatch b) throws DbException,
+            TransactionAbortedException {
+        if (m_dbItr instanceof BatchIterator)
+            return ((BatchIterator) m_dbItr).nextBatch(b);
+        b.clear();
+        while (!b.isFull() && hasNext())
+            b.add(next());
+        return b.size() > 0;
     }
 
     public void close() {
@@ -131,6 +197,7 @@ public class SeqScan implements DbIterator {
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+    	m_next = null;
     	m_dbItr.rewind();
     }
 }
@@ -7,7 +7,7 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
-            if (args.length<3 || args.length>5){
+            if (args.length<3 || args.length>6){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
             }
@@ -39,12 +39,32 @@ public class SimpleDb {
                                 return;
                             }
                 }
-                if (args.length==5)
+                if (args.length>=5)
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
+            // a sixth argument picks the storage format, as in the catalog:
+            // pax, slotted, compressed or encoded; without it, plain heap pages are written
+            String format = args.length==6 ? args[5].toLowerCase() : "heap";
+            if (format.equals("heap"))
+                HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
                         BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+            else if (format.equals("pax"))
+                HeapFileEncoder.convertPax(sourceTxtFile,targetDatFile,
+                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+            else if (format.equals("slotted"))
+                HeapFileEncoder.convertSlotted(sourceTxtFile,targetDatFile,
+                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+            else if (format.equals("compressed"))
+                HeapFileEncoder.convertCompressed(sourceTxtFile,targetDatFile,
+                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+            else if (format.equals("encoded"))
+                HeapFileEncoder.convertEncoded(sourceTxtFile,targetDatFile,
+                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+            else {
+                System.err.println("Unknown output format " + args[5]);
+                return;
+            }
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
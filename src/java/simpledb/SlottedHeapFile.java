@@ -0,0 +1,33 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * SlottedHeapFile is a HeapFile whose pages are SlottedPages, which store
+ * strings with their actual length. Tables of short strings fit many more
+ * tuples on a page than in the fixed-size format of HeapPage.
+ * <p>
+ * The files are not interchangeable with HeapFiles. A SlottedHeapFile is
+ * written from a text file by HeapFileEncoder.convertSlotted (the slotted
+ * format of the SimpleDb convert command), or filled with insertTuple or
+ * bulkLoad.
+ *
+ * @see SlottedPage
+ */
+public class SlottedHeapFile extends HeapFile {
+
+    public SlottedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /** @see HeapFile#HeapFile(File, TupleDesc, boolean) */
+    public SlottedHeapFile(File f, TupleDesc td, boolean mapped) {
+        super(f, td, mapped);
+    }
+
+    HeapPage createPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        return new SlottedPage(pid, data);
+    }
+}
@@ -0,0 +1,297 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * SlottedPage is a HeapPage that stores variable-length records, so that
+ * a string only takes as many bytes as it has characters instead of
+ * STRING_LEN.
+ * <p>
+ * The page starts with an unsigned short count of directory entries,
+ * followed by the slot directory: one unsigned short per slot holding
+ * the index of the slot's record in the page, or 0 if the slot is empty.
+ * Records are packed at the end of the page, growing towards the
+ * directory. In a record, an int field takes 4 bytes and a string field
+ * one length byte plus its characters.
+ * <p>
+ * Slots are numbered as on a HeapPage, up to the number of smallest
+ * possible records that fit on a page. Records are decoded whole when
+ * their slot is first asked for. Every write packs the records again, so
+ * space freed by deletes is reclaimed when the page is written.
+ *
+ * @see SlottedHeapFile
+ */
+public class SlottedPage extends HeapPage {
+
+    /** bytes of the directory entry count and of one directory entry */
+    private static final int SHORT_SIZE = 2;
+
+    private final int m_pageSize;
+    private final int m_minRecordSize;
+    /** index of the record of each slot in the page as read */
+    private final int[] m_offsets;
+    /** size of the record of each used slot */
+    private final int[] m_sizes;
+    /** bytes taken by the records of all used slots */
+    private int m_usedBytes;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk.
+     * @see HeapPage#HeapPage(HeapPageId, byte[])
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a SlottedPage from a buffer holding the page.
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    public SlottedPage(HeapPageId id, ByteBuffer data) throws IOException {
+        super(id, data, maxSlots(Database.getCatalog().getTupleDesc(id.getTableId())));
+        m_pageSize = BufferPool.getPageSize();
+        if (m_pageSize > 0x10000)
+            throw new IOException("pages are too large for slotted pages");
+        if (m_data.remaining() < m_pageSize)
+            throw new IOException("page is too short");
+        m_minRecordSize = minRecordSize(td);
+        m_offsets = new int[numSlots];
+        m_sizes = new int[numSlots];
+
+        int entries = m_data.getShort(0) & 0xffff;
+        if (entries > numSlots)
+            throw new IOException("corrupt slot directory");
+        for (int i = 0; i < entries; i++) {
+            int off = m_data.getShort(SHORT_SIZE * (i + 1)) & 0xffff;
+            if (off == 0)
+                continue;
+            if (off < SHORT_SIZE * (entries + 1) || off >= m_pageSize)
+                throw new IOException("corrupt slot directory");
+            m_offsets[i] = off;
+            m_sizes[i] = rawRecordSize(off);
+            m_usedBytes += m_sizes[i];
+            markSlotUsed(i, true);
+        }
+    }
+
+    /** @return the most records of schema td that fit on a page */
+    static int maxSlots(TupleDesc td) {
+        return maxSlots(td, BufferPool.getPageSize());
+    }
+
+    /** @return the most records of schema td that fit on a page of pageSize bytes */
+    static int maxSlots(TupleDesc td, int pageSize) {
+        return (pageSize - SHORT_SIZE) / (minRecordSize(td) + SHORT_SIZE);
+    }
+
+    /** @return the size of the smallest record of schema td */
+    private static int minRecordSize(TupleDesc td) {
+        int size = 0;
+        for (int f = 0; f < td.numFields(); f++)
+            size += td.getFieldType(f) == Type.STRING_TYPE ? 1 : td.getFieldType(f).getLen();
+        return size;
+    }
+
+    /** @return the size of the record of t */
+    static int recordSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int f = 0; f < td.numFields(); f++) {
+            if (td.getFieldType(f) == Type.STRING_TYPE)
+                size += 1 + Math.min(((StringField) t.getField(f)).getValue().length(), Type.STRING_LEN);
+            else
+                size += td.getFieldType(f).getLen();
+        }
+        return size;
+    }
+
+    /** @return the size of the record at index off of the page as read */
+    private int rawRecordSize(int off) throws IOException {
+        int at = off;
+        for (int f = 0; f < td.numFields(); f++) {
+            if (at >= m_pageSize)
+                throw new IOException("record runs past the end of the page");
+            if (td.getFieldType(f) == Type.STRING_TYPE)
+                at += 1 + (m_data.get(at) & 0xff);
+            else
+                at += td.getFieldType(f).getLen();
+        }
+        if (at > m_pageSize)
+            throw new IOException("record runs past the end of the page");
+        return at - off;
+    }
+
+    /** @return the number of directory entries the used slots need */
+    private int directorySize() {
+        for (int w = used.length - 1; w >= 0; w--) {
+            if (used[w] != 0)
+                return (w << 6) + 64 - Long.numberOfLeadingZeros(used[w]);
+        }
+        return 0;
+    }
+
+    /** @return the bytes not taken by the directory or by records */
+    private int freeBytes() {
+        return m_pageSize - SHORT_SIZE * (directorySize() + 1) - m_usedBytes;
+    }
+
+    /**
+     * Packs the records of tuples into a page of pageSize bytes, with the
+     * tuples in the first slots. The caller makes sure that they fit.
+     * @return the page
+     */
+    static byte[] encode(List<Tuple> tuples, int pageSize) {
+        ByteBuffer page = ByteBuffer.allocate(pageSize);
+        int count = tuples.size();
+        page.putShort(0, (short) count);
+        int end = pageSize;
+        for (int i = 0; i < count; i++) {
+            end -= recordSize(tuples.get(i));
+            writeRecord(page, end, tuples.get(i));
+            page.putShort(SHORT_SIZE * (i + 1), (short) end);
+        }
+        return page.array();
+    }
+
+    HeapPage reread(ByteBuffer data) throws IOException {
+        return new SlottedPage(pid, data);
+    }
+
+    Tuple getTuple(int i) {
+        Tuple t = tuples[i];
+        if (t == null && isSlotUsed(i)) {
+            t = new Tuple(td);
+            int at = m_offsets[i];
+            for (int f = 0; f < td.numFields(); f++) {
+                if (td.getFieldType(f) == Type.STRING_TYPE) {
+                    int len = m_data.get(at) & 0xff;
+                    char[] chars = new char[len];
+                    for (int c = 0; c < len; c++)
+                        chars[c] = (char) (m_data.get(at + 1 + c) & 0xff);
+                    t.setField(f, new StringField(new String(chars), Type.STRING_LEN));
+                    at += 1 + len;
+                } else {
+                    t.setInt(f, m_data.getInt(at));
+                    at += td.getFieldType(f).getLen();
+                }
+            }
+            t.setRecordId(new RecordId(pid, i));
+            tuples[i] = t;
+        }
+        return t;
+    }
+
+    void copySlot(TupleBatch b, int i) {
+        b.add(getTuple(i));
+    }
+
+    boolean passes(Predicate pred, int i) {
+        return pred.filter(getTuple(i));
+    }
+
+    /**
+     * Returns an estimate of the number of empty slots on this page: the
+     * number of smallest possible records that still fit.
+     */
+    public int getNumEmptySlots() {
+        int room = freeBytes() / (m_minRecordSize + SHORT_SIZE);
+        return Math.max(0, Math.min(super.getNumEmptySlots(), room));
+    }
+
+    boolean hasRoomFor(Tuple t) {
+        int slot = firstEmptySlot();
+        if (slot < 0)
+            return false;
+        int grow = Math.max(0, slot + 1 - directorySize());
+        return recordSize(t) + SHORT_SIZE * grow <= freeBytes();
+    }
+
+    /**
+     * Adds the specified tuple to the page.
+     * @throws DbException if the tuple does not fit or tupledesc is
+     *         mismatch.
+     * @see HeapPage#insertTuple
+     */
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc is mismatch");
+        if (!hasRoomFor(t))
+            throw new DbException("page is full");
+        super.insertTuple(t);
+        int slot = t.getRecordId().tupleno();
+        m_sizes[slot] = recordSize(t);
+        m_usedBytes += m_sizes[slot];
+    }
+
+    // see HeapPage.java for javadocs
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        super.deleteTuple(t);
+        m_usedBytes -= m_sizes[rid.tupleno()];
+        m_sizes[rid.tupleno()] = 0;
+    }
+
+    /**
+     * Writes the page, packing the records again. The size of the record of
+     * a tuple is taken from the tuple as it is now, since its fields may
+     * have been set since it was inserted.
+     *
+     * @throws IllegalStateException if the records no longer fit on the
+     *   page
+     * @see Page#getPageData
+     */
+    public synchronized void writePageData(ByteBuffer dst) {
+        int start = dst.position();
+        int entries = directorySize();
+        int usedBytes = 0;
+        for (int i = 0; i < entries; i++) {
+            if (isSlotUsed(i) && tuples[i] != null)
+                m_sizes[i] = recordSize(tuples[i]);
+            usedBytes += m_sizes[i];
+        }
+        m_usedBytes = usedBytes;
+        if (SHORT_SIZE * (entries + 1) + usedBytes > m_pageSize)
+            throw new IllegalStateException("records no longer fit on page " + pid);
+        dst.putShort(start, (short) entries);
+        int end = m_pageSize;
+        for (int i = 0; i < entries; i++) {
+            int at = 0;
+            if (isSlotUsed(i)) {
+                end -= m_sizes[i];
+                at = end;
+                Tuple t = tuples[i];
+                if (t == null) {
+                    ByteBuffer raw = m_data.duplicate();
+                    raw.limit(m_offsets[i] + m_sizes[i]).position(m_offsets[i]);
+                    dst.position(start + at);
+                    dst.put(raw);
+                } else {
+                    writeRecord(dst, start + at, t);
+                }
+            }
+            dst.putShort(start + SHORT_SIZE * (i + 1), (short) at);
+        }
+        int dirEnd = SHORT_SIZE * (entries + 1);
+        zero(dst, start + dirEnd, end - dirEnd);
+        dst.position(start + m_pageSize);
+    }
+
+    /** Writes the record of t at index at of dst. */
+    static void writeRecord(ByteBuffer dst, int at, Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        for (int f = 0; f < td.numFields(); f++) {
+            if (td.getFieldType(f) == Type.STRING_TYPE) {
+                String s = ((StringField) t.getField(f)).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                dst.put(at++, (byte) len);
+                for (int c = 0; c < len; c++)
+                    dst.put(at++, (byte) s.charAt(c));
+            } else {
+                dst.putInt(at, t.getInt(f));
+                at += td.getFieldType(f).getLen();
+            }
+        }
+    }
+}
@@ -1,14 +1,27 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
+ * <p>
+ * Strings are stored one byte per character, in ISO-8859-1, wherever they
+ * are written: on every kind of page and in the bytes predicates compare.
+ * A StringField therefore only holds characters up to '\u00ff', and the
+ * constructor throws IllegalArgumentException for a string with any
+ * other character. Such strings used to be accepted and then stored
+ * garbled; callers building fields from outside input should expect the
+ * exception.
  */
 public class StringField implements Field {
 
 	private static final long serialVersionUID = 1L;
 
+	/** the encoding of stored strings */
+	public static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
 	private final String value;
 	private final int maxSize;
 
@@ -23,6 +36,9 @@ public class StringField implements Field {
 	 *            The value of this field.
 	 * @param maxSize
 	 *            The maximum size of this string
+	 * @throws IllegalArgumentException
+	 *             if the string, cut to maxSize, has a character that
+	 *             ISO-8859-1 cannot store
 	 */
 	public StringField(String s, int maxSize) {
 		this.maxSize = maxSize;
@@ -31,6 +47,11 @@ public class StringField implements Field {
 			value = s.substring(0, maxSize);
 		else
 			value = s;
+		for (int i = 0; i < value.length(); i++) {
+			if (value.charAt(i) > 0xff)
+				throw new IllegalArgumentException("character " + (int) value.charAt(i)
+						+ " cannot be stored in a string field");
+		}
 	}
 
 	public String toString() {
@@ -66,6 +87,23 @@ public class StringField implements Field {
 			dos.write((byte) 0);
 	}
 
+	/**
+	 * Write this string to buf, in the format of
+	 * {@link #serialize(DataOutputStream)}.
+	 * 
+	 * @param buf
+	 *            Where the string is written
+	 */
+	public void serialize(ByteBuffer buf) {
+		int len = Math.min(value.length(), maxSize);
+		buf.putInt(len);
+		for (int i = 0; i < len; i++)
+			buf.put((byte) value.charAt(i));
+		int overflow = maxSize - len;
+		while (overflow-- > 0)
+			buf.put((byte) 0);
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
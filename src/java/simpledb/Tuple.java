@@ -1,13 +1,25 @@
 package simpledb;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * Tuples read from a page can be backed by the page's bytes. Their Field
+ * objects are then only created when a field is first asked for.
+ * <p>
+ * Int fields can also be set with setInt, which keeps the value in an
+ * int[] instead of an IntField. getInt and getStringBytes read fields
+ * without creating Field objects, whichever way the tuple is backed.
  */
 public class Tuple implements Serializable {
 
@@ -16,6 +28,15 @@ public class Tuple implements Serializable {
     private TupleDesc m_td;
     private Field[] m_fields;
     private RecordId m_rid;
+    /** bytes that fields not set yet are decoded from, or null */
+    private transient ByteBuffer m_data;
+    /** tells where the fields of the tuple are in m_data */
+    private transient HeapPage.Layout m_layout;
+    private int m_slot;
+    /** int fields set with setInt, and the bitmap of which ones those are */
+    private int[] m_ints;
+    private long[] m_unboxed;
+
     /**
      * Create a new tuple with the specified schema (type).
      * 
@@ -34,6 +55,27 @@ public class Tuple implements Serializable {
     	
     }
 
+    /**
+     * Create a tuple whose fields are decoded from a buffer on first use.
+     *
+     * @param td
+     *            the schema of this tuple.
+     * @param data
+     *            buffer holding the page of the tuple; it must not change
+     *            while the tuple is in use.
+     * @param layout
+     *            the layout of the page, which tells where each field is
+     *            in data.
+     * @param slot
+     *            the slot of the tuple on the page.
+     */
+    Tuple(TupleDesc td, ByteBuffer data, HeapPage.Layout layout, int slot) {
+    	this(td);
+    	m_data = data;
+    	m_layout = layout;
+    	m_slot = slot;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -75,6 +117,87 @@ public class Tuple implements Serializable {
     	if (i<0 || i>=m_fields.length)
     		throw new IllegalArgumentException("Invalid index");
     	m_fields[i] = f;
+    	if (m_unboxed != null)
+    		m_unboxed[i >>> 6] &= ~(1L << i);
+    }
+
+    /**
+     * Change the value of the ith field of this tuple, which must be an
+     * int field, without creating an IntField for it.
+     *
+     * @param i
+     *            index of the field to change. It must be a valid index.
+     * @param v
+     *            new value for the field.
+     */
+    public void setInt(int i, int v) {
+    	checkType(i, Type.INT_TYPE);
+    	if (m_ints == null) {
+    		m_ints = new int[m_fields.length];
+    		m_unboxed = new long[(m_fields.length + 63) / 64];
+    	}
+    	m_ints[i] = v;
+    	m_unboxed[i >>> 6] |= 1L << i;
+    	m_fields[i] = null;
+    }
+
+    /**
+     * @return the value of the ith field, which must be an int field. No
+     *   IntField is created for a field that was not decoded yet.
+     * @throws NoSuchElementException if the field has not been set
+     */
+    public int getInt(int i) {
+    	checkType(i, Type.INT_TYPE);
+    	Field f = m_fields[i];
+    	if (f != null)
+    		return ((IntField) f).getValue();
+    	if (isUnboxed(i))
+    		return m_ints[i];
+    	if (m_data != null)
+    		return m_data.getInt(m_layout.fieldOffset(m_slot, i));
+    	throw new NoSuchElementException("field " + i + " is not set");
+    }
+
+    /**
+     * Copies the characters of the ith field, which must be a string
+     * field, into dst as bytes, without creating a StringField for it.
+     *
+     * @param dst
+     *            where the bytes go; must hold Type.STRING_LEN bytes.
+     * @return the length of the string
+     * @throws NoSuchElementException if the field has not been set
+     */
+    public int getStringBytes(int i, byte[] dst) {
+    	checkType(i, Type.STRING_TYPE);
+    	Field f = m_fields[i];
+    	if (f != null) {
+    		String s = ((StringField) f).getValue();
+    		int len = Math.min(s.length(), Type.STRING_LEN);
+    		for (int c=0; c<len; c++)
+    			dst[c] = (byte) s.charAt(c);
+    		return len;
+    	}
+    	if (m_data != null) {
+    		int off = m_layout.fieldOffset(m_slot, i);
+    		int len = m_data.getInt(off);
+    		if (len < 0 || len > Type.STRING_LEN)
+    			throw new NoSuchElementException("parsing error!");
+    		for (int c=0; c<len; c++)
+    			dst[c] = m_data.get(off + 4 + c);
+    		return len;
+    	}
+    	throw new NoSuchElementException("field " + i + " is not set");
+    }
+
+    private void checkType(int i, Type type) {
+    	if (i<0 || i>=m_fields.length)
+    		throw new IllegalArgumentException("Invalid index");
+    	if (m_td.getFieldType(i) != type)
+    		throw new IllegalArgumentException("field " + i + " is not of type " + type);
+    }
+
+    private boolean isUnboxed(int i) {
+    	return m_unboxed != null && (m_unboxed[i >>> 6] & (1L << i)) != 0;
     }
 
     /**
@@ -87,7 +210,60 @@ public class Tuple implements Serializable {
         // some code goes here
     	if (i<0 || i>=m_fields.length)
     		throw new IllegalArgumentException("Invalid index");
-    	return m_fields[i];
+    	Field f = m_fields[i];
+    	if (f == null && isUnboxed(i)) {
+    		f = new IntField(m_ints[i]);
+    		m_fields[i] = f;
+    	} else if (f == null && m_data != null) {
+    		f = decode(i);
+    		m_fields[i] = f;
+    	}
+    	return f;
+    }
+
+    private Field decode(int i) {
+    	try {
+    		return m_td.getFieldType(i).parse(m_data, m_layout.fieldOffset(m_slot, i));
+    	} catch (ParseException e) {
+    		throw new NoSuchElementException("parsing error!");
+    	}
+    }
+
+    /** Creates the Field objects of all fields that are still undecoded. */
+    private void decodeAll() {
+    	if (m_data == null && m_ints == null)
+    		return;
+    	for (int i=0; i<m_fields.length; i++)
+    		getField(i);
+    }
+
+    /**
+     * Writes the serialized tuple to buf, at its current position. Fields
+     * that were never decoded are copied from the bytes backing the tuple.
+     */
+    void serialize(ByteBuffer buf) {
+    	for (int i=0; i<m_fields.length; i++)
+    		serializeField(i, buf);
+    }
+
+    /** Writes the serialized field i to buf, at its current position. */
+    void serializeField(int i, ByteBuffer buf) {
+    	Field f = m_fields[i];
+    	if (f == null && isUnboxed(i)) {
+    		buf.putInt(m_ints[i]);
+    	} else if (f == null && m_data != null) {
+    		int start = m_layout.fieldOffset(m_slot, i);
+    		ByteBuffer raw = m_data.duplicate();
+    		raw.limit(start + m_td.getFieldType(i).getLen()).position(start);
+    		buf.put(raw);
+    	} else {
+    		f.serialize(buf);
+    	}
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+    	decodeAll();
+    	out.defaultWriteObject();
     }
 
     /**
@@ -100,6 +276,7 @@ public class Tuple implements Serializable {
      */
     public String toString() {
         // some code goes here
+    	decodeAll();
     	String text = "";
     	int i;
     	for(i=0; i<m_fields.length-1; i++){
@@ -116,6 +293,7 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // some code goes here
+    	decodeAll();
     	return Arrays.asList(m_fields).iterator();
     }
     
@@ -131,5 +309,9 @@ public class Tuple implements Serializable {
 			throw new IllegalArgumentException("TupleDesc has less than 1 field");
     	m_td = td;
     	m_fields = new Field[td.numFields()];
+    	m_data = null;
+    	m_layout = null;
+    	m_ints = null;
+    	m_unboxed = null;
     }
 }
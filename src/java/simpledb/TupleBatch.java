@@ -0,0 +1,264 @@
+package simpledb;
+
+import java.text.ParseException;
+
+/**
+ * TupleBatch holds up to a fixed number of rows column by column: the
+ * values of an int field in an int[], those of a string field in a
+ * String[]. A selection vector lists the rows that are still live, in
+ * order; filters shrink it instead of moving rows, so the column arrays
+ * can be run over in tight loops.
+ * <p>
+ * A batch is meant to be filled over and over by a BatchIterator; its
+ * arrays are allocated once.
+ *
+ * @see BatchIterator
+ */
+public class TupleBatch {
+
+    /** Number of rows of a batch when the caller does not care. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc m_td;
+    private final int m_capacity;
+    private int m_size;
+    /** values of each int field; null for other fields */
+    private final int[][] m_ints;
+    /** values of each string field; null for other fields */
+    private final String[][] m_strings;
+    /** where each row came from: a page and a slot, or null */
+    private final PageId[] m_pages;
+    private final int[] m_slots;
+    /** the live rows, in order */
+    private final int[] m_sel;
+    private int m_selected;
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param td
+     *            the schema of the rows of the batch.
+     * @param capacity
+     *            the most rows the batch holds.
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive");
+        m_td = td;
+        m_capacity = capacity;
+        int fields = td.numFields();
+        m_ints = new int[fields][];
+        m_strings = new String[fields][];
+        for (int f = 0; f < fields; f++) {
+            if (td.getFieldType(f) == Type.INT_TYPE)
+                m_ints[f] = new int[capacity];
+            else
+                m_strings[f] = new String[capacity];
+        }
+        m_pages = new PageId[capacity];
+        m_slots = new int[capacity];
+        m_sel = new int[capacity];
+    }
+
+    /** @return the schema of the rows of this batch */
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    /** @return the most rows this batch holds */
+    public int capacity() {
+        return m_capacity;
+    }
+
+    /** @return the number of rows in this batch, live or not */
+    public int size() {
+        return m_size;
+    }
+
+    /** @return true if no more rows can be added */
+    public boolean isFull() {
+        return m_size == m_capacity;
+    }
+
+    /** Removes all rows. */
+    public void clear() {
+        m_size = 0;
+        m_selected = 0;
+    }
+
+    /** @return the number of live rows */
+    public int numSelected() {
+        return m_selected;
+    }
+
+    /** @return the row of the k-th live row */
+    public int selected(int k) {
+        if (k < 0 || k >= m_selected)
+            throw new IndexOutOfBoundsException("no live row " + k);
+        return m_sel[k];
+    }
+
+    /**
+     * @return the selection vector: its first numSelected() entries are the
+     *   live rows. The array belongs to the batch.
+     */
+    public int[] getSelection() {
+        return m_sel;
+    }
+
+    /**
+     * Makes the first n entries of rows the live rows; rows may be the
+     * array returned by getSelection. Rows must be in increasing order.
+     */
+    public void setSelection(int[] rows, int n) {
+        if (n < 0 || n > m_size)
+            throw new IllegalArgumentException("bad selection size " + n);
+        System.arraycopy(rows, 0, m_sel, 0, n);
+        m_selected = n;
+    }
+
+    /**
+     * @return the values of int field f; the first size() entries are
+     *   valid. The array belongs to the batch.
+     */
+    public int[] getIntColumn(int f) {
+        if (m_ints[f] == null)
+            throw new IllegalArgumentException("field " + f + " is not an int field");
+        return m_ints[f];
+    }
+
+    /**
+     * @return the values of string field f; the first size() entries are
+     *   valid. The array belongs to the batch.
+     */
+    public String[] getStringColumn(int f) {
+        if (m_strings[f] == null)
+            throw new IllegalArgumentException("field " + f + " is not a string field");
+        return m_strings[f];
+    }
+
+    /** @return the RecordId of row, or null if it did not come from a page */
+    public RecordId getRecordId(int row) {
+        return m_pages[row] == null ? null : new RecordId(m_pages[row], m_slots[row]);
+    }
+
+    /**
+     * Appends a live row, whose values the caller then stores in the
+     * column arrays.
+     * @return the new row
+     */
+    int addRow(PageId pid, int slot) {
+        if (isFull())
+            throw new IllegalStateException("batch is full");
+        int row = m_size++;
+        m_pages[row] = pid;
+        m_slots[row] = slot;
+        m_sel[m_selected++] = row;
+        return row;
+    }
+
+    /** Appends a copy of t as a live row. */
+    public void add(Tuple t) {
+        RecordId rid = t.getRecordId();
+        int row = rid == null ? addRow(null, 0) : addRow(rid.getPageId(), rid.tupleno());
+        for (int f = 0; f < m_ints.length; f++) {
+            if (m_ints[f] != null)
+                m_ints[f][row] = t.getInt(f);
+            else
+                m_strings[f][row] = ((StringField) t.getField(f)).getValue();
+        }
+    }
+
+    /**
+     * Copies a row stored in a page's bytes, with field i at index
+     * page.fieldOffset(slot, i) of data, into this batch.
+     */
+    void addRow(HeapPage page, java.nio.ByteBuffer data, int slot) {
+        int row = addRow(page.getId(), slot);
+        for (int f = 0; f < m_ints.length; f++) {
+            int off = page.fieldOffset(slot, f);
+            if (m_ints[f] != null) {
+                m_ints[f][row] = data.getInt(off);
+            } else {
+                try {
+                    m_strings[f][row] = ((StringField) Type.STRING_TYPE.parse(data, off)).getValue();
+                } catch (ParseException e) {
+                    throw new java.util.NoSuchElementException("parsing error!");
+                }
+            }
+        }
+    }
+
+    /** @return a new Tuple holding the values of row */
+    public Tuple getTuple(int row) {
+        if (row < 0 || row >= m_size)
+            throw new IndexOutOfBoundsException("no row " + row);
+        Tuple t = new Tuple(m_td);
+        for (int f = 0; f < m_ints.length; f++) {
+            if (m_ints[f] != null)
+                t.setInt(f, m_ints[f][row]);
+            else
+                t.setField(f, new StringField(m_strings[f][row], Type.STRING_LEN));
+        }
+        t.setRecordId(getRecordId(row));
+        return t;
+    }
+
+    /**
+     * Keeps only the live rows whose field f compares true against
+     * operand, as Field.compare would decide. Int fields are compared in a
+     * loop over the int column, without creating Fields.
+     */
+    public void select(int f, Predicate.Op op, Field operand) {
+        int n = m_selected;
+        int kept = 0;
+        if (m_ints[f] != null) {
+            int[] col = m_ints[f];
+            int v = ((IntField) operand).getValue();
+            switch (op) {
+            case EQUALS:
+            case LIKE:
+                for (int k = 0; k < n; k++) { int r = m_sel[k]; if (col[r] == v) m_sel[kept++] = r; }
+                break;
+            case NOT_EQUALS:
+                for (int k = 0; k < n; k++) { int r = m_sel[k]; if (col[r] != v) m_sel[kept++] = r; }
+                break;
+            case GREATER_THAN:
+                for (int k = 0; k < n; k++) { int r = m_sel[k]; if (col[r] > v) m_sel[kept++] = r; }
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int k = 0; k < n; k++) { int r = m_sel[k]; if (col[r] >= v) m_sel[kept++] = r; }
+                break;
+            case LESS_THAN:
+                for (int k = 0; k < n; k++) { int r = m_sel[k]; if (col[r] < v) m_sel[kept++] = r; }
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int k = 0; k < n; k++) { int r = m_sel[k]; if (col[r] <= v) m_sel[kept++] = r; }
+                break;
+            }
+        } else {
+            String[] col = m_strings[f];
+            String v = ((StringField) operand).getValue();
+            for (int k = 0; k < n; k++) {
+                int r = m_sel[k];
+                boolean match;
+                if (op == Predicate.Op.LIKE) {
+                    match = col[r].indexOf(v) >= 0;
+                } else {
+                    int cmp = col[r].compareTo(v);
+                    switch (op) {
+                    case EQUALS: match = cmp == 0; break;
+                    case NOT_EQUALS: match = cmp != 0; break;
+                    case GREATER_THAN: match = cmp > 0; break;
+                    case GREATER_THAN_OR_EQ: match = cmp >= 0; break;
+                    case LESS_THAN: match = cmp < 0; break;
+                    default: match = cmp <= 0; break;
+                    }
+                }
+                if (match)
+                    m_sel[kept++] = r;
+            }
+        }
+        m_selected = kept;
+    }
+}
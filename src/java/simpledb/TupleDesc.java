@@ -9,6 +9,8 @@ import java.util.*;
 public class TupleDesc implements Serializable {
 
 	private Vector<TDItem> m_td_vec;
+	/** byte offset of each field within a tuple, plus the tuple size; computed on first use */
+	private transient int[] m_offsets;
     /**
      * A help class to facilitate organizing the information of each field
      * */
@@ -151,11 +153,34 @@ public class TupleDesc implements Serializable {
      */
     public int getSize() {
         // some code goes here
-    	int size = 0;
-    	for (TDItem field : m_td_vec){
-    		size += field.fieldType.getLen();
+        return offsets()[m_td_vec.size()];
+    }
+
+    /**
+     * Gets the position of the ith field within the serialized form of
+     * tuples of this TupleDesc.
+     *
+     * @param i
+     *            index of the field. It must be a valid index.
+     * @return the number of bytes before the ith field
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getFieldOffset(int i) throws NoSuchElementException {
+    	if ( i<0 || i>=m_td_vec.size() )
+    		throw new NoSuchElementException();
+        return offsets()[i];
+    }
+
+    private int[] offsets() {
+    	int[] offsets = m_offsets;
+    	if (offsets == null) {
+    		offsets = new int[m_td_vec.size() + 1];
+    		for (int i = 0; i < m_td_vec.size(); i++)
+    			offsets[i + 1] = offsets[i] + m_td_vec.get(i).fieldType.getLen();
+    		m_offsets = offsets;
     	}
-        return size;
+    	return offsets;
     }
 
     /**
@@ -0,0 +1,44 @@
+package simpledb;
+
+/**
+ * Implements a BatchIterator on top of a DbIterator, copying its tuples
+ * into each batch one by one. Lets batch operators sit above operators that
+ * only work a tuple at a time.
+ */
+public class TupleToBatchIterator implements BatchIterator {
+
+    private final DbIterator m_child;
+
+    /**
+     * @param child
+     *            the iterator whose tuples are handed over in batches
+     */
+    public TupleToBatchIterator(DbIterator child) {
+        m_child = child;
+    }
+
+    /** @return the schema of the tuples of this iterator */
+    public TupleDesc getTupleDesc() {
+        return m_child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        m_child.open();
+    }
+
+    public boolean nextBatch(TupleBatch b) throws DbException,
+            TransactionAbortedException {
+        b.clear();
+        while (!b.isFull() && m_child.hasNext())
+            b.add(m_child.next());
+        return b.size() > 0;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_child.rewind();
+    }
+
+    public void close() {
+        m_child.close();
+    }
+}
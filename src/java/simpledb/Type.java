@@ -2,6 +2,8 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +26,24 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                return new IntField(buf.getInt());
+            } catch (BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                return new IntField(buf.getInt(offset));
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -37,11 +57,37 @@ public enum Type implements Serializable {
                 byte bs[] = new byte[strLen];
                 dis.read(bs);
                 dis.skipBytes(STRING_LEN-strLen);
-                return new StringField(new String(bs), STRING_LEN);
+                return new StringField(new String(bs, StringField.CHARSET), STRING_LEN);
             } catch (IOException e) {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                int strLen = buf.getInt();
+                if (strLen < 0 || strLen > STRING_LEN)
+                    throw new ParseException("bad string length " + strLen, buf.position());
+                byte bs[] = new byte[strLen];
+                buf.get(bs);
+                buf.position(buf.position() + STRING_LEN - strLen);
+                return new StringField(new String(bs, StringField.CHARSET), STRING_LEN);
+            } catch (BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                ByteBuffer field = buf.duplicate();
+                field.position(offset);
+                return parse(field);
+            } catch (IllegalArgumentException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +106,25 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the current position of the specified buffer, which is
+   *   advanced past the field.
+   * @param buf The buffer to read from
+   * @throws ParseException if the data in the buffer is not of the
+   *   appropriate type.
+   */
+    public abstract Field parse(ByteBuffer buf) throws ParseException;
+
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the specified buffer at the given index. The position of the
+   *   buffer is not changed, so several threads may parse the same buffer.
+   * @param buf The buffer to read from
+   * @param offset The index of the field's first byte in buf
+   * @throws ParseException if the data in the buffer is not of the
+   *   appropriate type.
+   */
+    public abstract Field parse(ByteBuffer buf, int offset) throws ParseException;
+
 }
@@ -107,6 +107,8 @@ public class Utility {
         FileOutputStream fos = new FileOutputStream(f);
         fos.write(new byte[0]);
         fos.close();
+        // free space recorded for an old file of that name is meaningless
+        FreeSpaceMap.sidecarFile(f).delete();
 
         HeapFile hf = openHeapFile(cols, f);
         HeapPageId pid = new HeapPageId(hf.getId(), 0);
@@ -0,0 +1,440 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+    private static final int PAGES = 10;
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        // one int column: 992 tuples per page
+        hf = SystemTestUtil.createRandomHeapFile(1, 992 * PAGES, null, null);
+        tid = new TransactionId();
+    }
+
+    private Page get(BufferPool bp, int pgNo) throws Exception {
+        return bp.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+    }
+
+    /**
+     * Reading more pages than fit must evict instead of growing the pool.
+     */
+    @Test
+    public void evictionKeepsPoolBounded() throws Exception {
+        BufferPool bp = Database.resetBufferPool(4);
+        for (int i = 0; i < PAGES; i++)
+            get(bp, i);
+        assertEquals(PAGES, bp.getMissCount());
+        assertEquals(0, bp.getHitCount());
+        assertEquals(PAGES - 4, bp.getEvictionCount());
+
+        // the last page read is still resident
+        get(bp, PAGES - 1);
+        assertEquals(1, bp.getHitCount());
+        assertEquals(PAGES, bp.getMissCount());
+    }
+
+    /**
+     * CLOCK gives recently referenced pages a second chance.
+     */
+    @Test
+    public void clockSecondChance() throws Exception {
+        BufferPool bp = Database.resetBufferPool(3, new ClockReplacementPolicy());
+        get(bp, 0);
+        get(bp, 1);
+        get(bp, 2);
+        // all reference bits are set: one sweep clears them, page 0 goes
+        get(bp, 3);
+        // page 1 is referenced again and survives the next eviction
+        get(bp, 1);
+        get(bp, 4);
+        bp.resetStats();
+        get(bp, 1);
+        get(bp, 3);
+        get(bp, 4);
+        assertEquals(3, bp.getHitCount());
+        assertEquals(0, bp.getMissCount());
+    }
+
+    /**
+     * LRU-2 evicts pages referenced only once before pages referenced twice.
+     */
+    @Test
+    public void lruKPrefersPagesWithFewReferences() throws Exception {
+        BufferPool bp = Database.resetBufferPool(3, new LruKReplacementPolicy(2));
+        get(bp, 0);
+        get(bp, 0);
+        get(bp, 1);
+        get(bp, 1);
+        get(bp, 2);
+        get(bp, 3);
+        bp.resetStats();
+        get(bp, 0);
+        get(bp, 1);
+        assertEquals(2, bp.getHitCount());
+        get(bp, 2);
+        assertEquals(1, bp.getMissCount());
+    }
+
+    /**
+     * Dirty pages must never be evicted (NO STEAL).
+     */
+    @Test
+    public void dirtyPagesAreNotEvicted() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2, new LruKReplacementPolicy());
+        get(bp, 0).markDirty(true, tid);
+        get(bp, 1);
+        get(bp, 2);
+        assertNotNull(get(bp, 0).isDirty());
+
+        get(bp, 2).markDirty(true, tid);
+        try {
+            get(bp, 3);
+            fail("expected DbException");
+        } catch (DbException e) {
+        }
+    }
+
+    /**
+     * Pinned pages stay in the pool until they are unpinned.
+     */
+    @Test
+    public void pinnedPagesAreNotEvicted() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2);
+        PageId pinned = new HeapPageId(hf.getId(), 0);
+        bp.pinPage(tid, pinned, Permissions.READ_ONLY, null);
+        for (int i = 1; i < PAGES; i++)
+            get(bp, i);
+        bp.resetStats();
+        get(bp, 0);
+        assertEquals(1, bp.getHitCount());
+
+        bp.unpinPage(pinned);
+        get(bp, 1);
+        get(bp, 2);
+        assertEquals(1, bp.getHitCount());
+        assertEquals(2, bp.getMissCount());
+    }
+
+    /**
+     * A page that a file replaces with its own copy on an update stays
+     * pinned.
+     */
+    @Test
+    public void replacedPageKeepsPins() throws Exception {
+        class CopyingHeapFile extends HeapFile {
+            CopyingHeapFile(File f, TupleDesc td) {
+                super(f, td);
+            }
+
+            @Override
+            public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException {
+                HeapPage copy = (HeapPage) readPage(t.getRecordId().getPageId());
+                copy.deleteTuple(copy.iterator().next());
+                ArrayList<Page> pages = new ArrayList<Page>();
+                pages.add(copy);
+                return pages;
+            }
+        }
+        CopyingHeapFile copying = new CopyingHeapFile(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(copying, SystemTestUtil.getUUID());
+        BufferPool bp = Database.resetBufferPool(2);
+        PageId pinned = new HeapPageId(copying.getId(), 0);
+        Page page = bp.pinPage(tid, pinned, Permissions.READ_WRITE, null);
+        bp.deleteTuple(tid, ((HeapPage) page).iterator().next());
+        Page copy = bp.getPage(tid, pinned, Permissions.READ_ONLY);
+        assertNotSame(page, copy);
+        // written out, the copy may be evicted unless the pin is kept
+        bp.flushAllPages();
+
+        for (int i = 1; i < PAGES; i++)
+            bp.getPage(tid, new HeapPageId(copying.getId(), i), Permissions.READ_ONLY);
+        bp.resetStats();
+        assertSame(copy, bp.getPage(tid, pinned, Permissions.READ_ONLY));
+        assertEquals(1, bp.getHitCount());
+        bp.unpinPage(pinned);
+    }
+
+    /**
+     * Concurrent readers of the same pages must read each page only once.
+     */
+    @Test
+    public void concurrentMissesReadOnce() throws Exception {
+        final BufferPool bp = Database.resetBufferPool(PAGES);
+        final int THREADS = 8;
+        final Exception[] errors = new Exception[THREADS];
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int id = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < PAGES; i++)
+                            get(bp, (i + id) % PAGES);
+                    } catch (Exception e) {
+                        errors[id] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        for (Exception e : errors)
+            assertNull(e);
+        assertEquals(PAGES, bp.getMissCount());
+        assertEquals(THREADS * PAGES - PAGES, bp.getHitCount());
+        assertEquals(0, bp.getEvictionCount());
+    }
+
+    /**
+     * Callers that miss on a page while it is being read wait for that read
+     * instead of reading the page again.
+     */
+    @Test
+    public void concurrentMissesOnOnePageShareTheRead() throws Exception {
+        class SlowHeapFile extends HeapFile {
+            final AtomicInteger reads = new AtomicInteger();
+
+            SlowHeapFile(File f, TupleDesc td) {
+                super(f, td);
+            }
+
+            @Override
+            public Page readPage(PageId pid) {
+                reads.incrementAndGet();
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                }
+                return super.readPage(pid);
+            }
+        }
+        final SlowHeapFile slow = new SlowHeapFile(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(slow, SystemTestUtil.getUUID());
+        final BufferPool bp = Database.resetBufferPool(PAGES);
+
+        final int THREADS = 8;
+        final Page[] pages = new Page[THREADS];
+        final Throwable[] errors = new Throwable[THREADS];
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int id = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        pages[id] = bp.getPage(tid, new HeapPageId(slow.getId(), 0),
+                                Permissions.READ_ONLY);
+                    } catch (Throwable e) {
+                        errors[id] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        for (Throwable e : errors)
+            assertNull(e);
+        assertEquals(1, slow.reads.get());
+        assertNotNull(pages[0]);
+        for (Page p : pages)
+            assertSame(pages[0], p);
+    }
+
+    /**
+     * An Error thrown by the read is handed to every caller waiting for the
+     * page; none of them is left waiting.
+     */
+    @Test
+    public void failedReadReleasesWaiters() throws Exception {
+        class BrokenHeapFile extends HeapFile {
+            BrokenHeapFile(File f, TupleDesc td) {
+                super(f, td);
+            }
+
+            @Override
+            public Page readPage(PageId pid) {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                }
+                throw new AssertionError("corrupt page");
+            }
+        }
+        final BrokenHeapFile broken = new BrokenHeapFile(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(broken, SystemTestUtil.getUUID());
+        final BufferPool bp = Database.resetBufferPool(PAGES);
+
+        final int THREADS = 4;
+        final Throwable[] errors = new Throwable[THREADS];
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int id = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        bp.getPage(tid, new HeapPageId(broken.getId(), 0),
+                                Permissions.READ_ONLY);
+                    } catch (Throwable e) {
+                        errors[id] = e;
+                    }
+                }
+            };
+            threads[t].setDaemon(true);
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join(5000);
+            assertFalse("a caller is still waiting for the page", t.isAlive());
+        }
+        for (Throwable e : errors)
+            assertTrue(String.valueOf(e), e instanceof AssertionError);
+    }
+
+    /**
+     * A scan over a file larger than the pool must not push out pages that
+     * were read before it.
+     */
+    @Test
+    public void largeScanKeepsHotPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(8);
+        for (int i = 0; i < 4; i++)
+            get(bp, i);
+
+        HeapFile big = SystemTestUtil.createRandomHeapFile(1, 992 * 12, null, null);
+        DbFileIterator it = big.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(992 * 12, count);
+
+        bp.resetStats();
+        for (int i = 0; i < 4; i++)
+            get(bp, i);
+        assertEquals(4, bp.getHitCount());
+        assertEquals(0, bp.getMissCount());
+    }
+
+    /**
+     * With read-ahead on, a large scan still only recycles its own frames,
+     * although the scan has its current page pinned and pages read ahead
+     * are waiting for it.
+     */
+    @Test
+    public void largeScanWithReadAheadKeepsHotPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(10);
+        bp.setReadAheadWindow(3);
+        for (int i = 0; i < 4; i++)
+            get(bp, i);
+
+        HeapFile big = SystemTestUtil.createRandomHeapFile(1, 992 * 20, null, null);
+        DbFileIterator it = big.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(992 * 20, count);
+
+        bp.resetStats();
+        for (int i = 0; i < 4; i++)
+            get(bp, i);
+        assertEquals(4, bp.getHitCount());
+        assertEquals(0, bp.getMissCount());
+    }
+
+    /**
+     * Once a scan is sequential, the pages ahead of it are read by the
+     * read-ahead thread.
+     */
+    @Test
+    public void readAheadPrefetchesSequentialPages() throws Exception {
+        class RecordingHeapFile extends HeapFile {
+            final ConcurrentHashMap<Integer, Thread> readers =
+                new ConcurrentHashMap<Integer, Thread>();
+
+            RecordingHeapFile(File f, TupleDesc td) {
+                super(f, td);
+            }
+
+            @Override
+            public Page readPage(PageId pid) {
+                Page p = super.readPage(pid);
+                readers.put(pid.pageNumber(), Thread.currentThread());
+                return p;
+            }
+
+            @Override
+            public Page[] readPages(PageId first, int count) {
+                Page[] pages = super.readPages(first, count);
+                for (Page p : pages)
+                    readers.put(p.getId().pageNumber(), Thread.currentThread());
+                return pages;
+            }
+        }
+        RecordingHeapFile rec = new RecordingHeapFile(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(rec, SystemTestUtil.getUUID());
+        BufferPool bp = Database.resetBufferPool(PAGES * 2);
+        bp.setReadAheadWindow(4);
+
+        // requesting pages 0 and 1 makes the scan sequential
+        DbFileIterator it = rec.iterator(tid);
+        it.open();
+        for (int i = 0; i <= 992; i++)
+            it.next();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (rec.readers.size() < 6 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        for (int i = 2; i < 6; i++) {
+            assertNotNull(rec.readers.get(i));
+            assertNotSame(Thread.currentThread(), rec.readers.get(i));
+        }
+
+        bp.resetStats();
+        for (int i = 2; i < 6; i++)
+            bp.getPage(tid, new HeapPageId(rec.getId(), i), Permissions.READ_ONLY);
+        assertEquals(0, bp.getMissCount());
+
+        int count = 993;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(992 * PAGES, count);
+        assertEquals(PAGES, rec.readers.size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
@@ -2,6 +2,8 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
+import java.io.FileWriter;
 import java.util.NoSuchElementException;
 
 import junit.framework.Assert;
@@ -69,6 +71,52 @@ public class CatalogTest extends SimpleDbTestBase {
         assertEquals(-1, f.getId());
     }
 
+    /**
+     * Unit test for Catalog.loadSchema() with storage options
+     */
+    @Test public void loadSchemaOptions() throws Exception {
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        String plain = SystemTestUtil.getUUID();
+        String mapped = SystemTestUtil.getUUID();
+        String pax = SystemTestUtil.getUUID();
+        String slotted = SystemTestUtil.getUUID();
+        String compressed = SystemTestUtil.getUUID();
+        String encoded = SystemTestUtil.getUUID();
+        FileWriter w = new FileWriter(schema);
+        w.write(plain + " (a int pk, b string)\n");
+        w.write(mapped + " (a int, b int) mmap\n");
+        w.write(pax + " (a int, b int) pax mmap\n");
+        w.write(slotted + " (a int, b string) slotted\n");
+        w.write(compressed + " (a int) compressed\n");
+        w.write(encoded + " (a int, b string) encoded\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        HeapFile f = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId(plain));
+        Assert.assertFalse(f.isMapped());
+        assertEquals("a", Database.getCatalog().getPrimaryKey(f.getId()));
+        f = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId(mapped));
+        Assert.assertTrue(f.isMapped());
+        assertEquals(2, f.getTupleDesc().numFields());
+        Assert.assertFalse(f instanceof PaxHeapFile);
+        f = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId(pax));
+        Assert.assertTrue(f instanceof PaxHeapFile);
+        Assert.assertTrue(f.isMapped());
+        f = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId(slotted));
+        Assert.assertTrue(f instanceof SlottedHeapFile);
+        f = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId(compressed));
+        Assert.assertTrue(f instanceof CompressedHeapFile);
+        f = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId(encoded));
+        Assert.assertTrue(f instanceof EncodedHeapFile);
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,170 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+    private TransactionId tid;
+    private File file;
+    private CompressedHeapFile hf;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("compressed", ".dat");
+        file.deleteOnExit();
+        CompressedHeapFile.indexFile(file).deleteOnExit();
+        FreeSpaceMap.sidecarFile(file).deleteOnExit();
+        hf = open();
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        hf.close();
+        CompressedHeapFile.indexFile(file).delete();
+        FreeSpaceMap.sidecarFile(file).delete();
+    }
+
+    private CompressedHeapFile open() {
+        CompressedHeapFile f = new CompressedHeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        return f;
+    }
+
+    private void load(int n) throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < n; ++i)
+            tuples.add(Utility.getHeapTuple(new int[] { i, i % 3 }));
+        assertEquals(n, hf.bulkLoad(tid, tuples.iterator()));
+    }
+
+    private int count(HeapFile f) throws Exception {
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() >= 0)
+                assertEquals(new IntField(count % 3), t.getField(1));
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    /**
+     * Loaded pages take less room than uncompressed ones and are read back
+     * through the page index, also after the file is opened again.
+     */
+    @Test public void bulkLoad() throws Exception {
+        load(504 * 10);
+        assertEquals(10, hf.numPages());
+        assertTrue(file.length() < 10L * BufferPool.getPageSize() / 2);
+        assertEquals(10 * 16L, CompressedHeapFile.indexFile(file).length());
+
+        hf.close();
+        CompressedHeapFile reopened = open();
+        assertEquals(10, reopened.numPages());
+        HeapPage page = (HeapPage) reopened.readPage(new HeapPageId(reopened.getId(), 7));
+        assertEquals(new IntField(504 * 7), page.iterator().next().getField(0));
+        assertEquals(3, reopened.readPages(new HeapPageId(reopened.getId(), 7), 5).length);
+        assertEquals(504 * 10, count(reopened));
+    }
+
+    /**
+     * Pages written through the buffer pool are stored compressed.
+     */
+    @Test public void writePage() throws Exception {
+        load(504 + 10);
+        long length = file.length();
+        BufferPool bp = Database.getBufferPool();
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { -1, 5 }));
+        bp.flushAllPages();
+        assertEquals(2, hf.numPages());
+
+        hf.close();
+        hf = open();
+        assertEquals(504 + 11, count(hf));
+        assertTrue(file.length() > length);
+
+        // a page that does not compress at all is stored as it is
+        HeapPage full = new HeapPage(new HeapPageId(hf.getId(), 2), HeapPage.createEmptyPageData());
+        Random r = new Random(0);
+        while (full.getNumEmptySlots() > 0)
+            full.insertTuple(Utility.getHeapTuple(new int[] { r.nextInt(), r.nextInt() }));
+        hf.writePage(full);
+        assertEquals(3, hf.numPages());
+        HeapPage back = (HeapPage) hf.readPage(full.getId());
+        assertArrayEquals(full.getPageData(), back.getPageData());
+    }
+
+    /**
+     * A page written again goes to fresh space; the space of its old
+     * version is reused by later writes, also after the file is opened
+     * again.
+     */
+    @Test public void rewritesReuseFreedSpace() throws Exception {
+        load(504 * 2);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        long loaded = file.length();
+        hf.writePage(page);
+        long length = file.length();
+        assertTrue(length > loaded);
+        // the versions take turns in two places
+        for (int i = 0; i < 10; ++i)
+            hf.writePage(page);
+        assertEquals(length, file.length());
+
+        hf.close();
+        hf = open();
+        for (int i = 0; i < 10; ++i)
+            hf.writePage(hf.readPage(pid));
+        assertEquals(length, file.length());
+        assertEquals(504 * 2, count(hf));
+    }
+
+    /**
+     * HeapFileEncoder writes compressed pages and their page index, which a
+     * CompressedHeapFile reads.
+     */
+    @Test public void convertCompressed() throws Exception {
+        hf.close();
+        File text = File.createTempFile("compressed", ".txt");
+        text.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < 504 * 10; ++i)
+            w.write(i + "," + (i % 3) + "\n");
+        w.close();
+        HeapFileEncoder.convertCompressed(text, file, BufferPool.getPageSize(), 2,
+                new Type[] { Type.INT_TYPE, Type.INT_TYPE }, ',');
+        assertTrue(file.length() < 10L * BufferPool.getPageSize() / 2);
+        assertEquals(10 * 16L, CompressedHeapFile.indexFile(file).length());
+
+        hf = open();
+        assertEquals(10, hf.numPages());
+        assertEquals(504 * 10, count(hf));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
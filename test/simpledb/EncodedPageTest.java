@@ -0,0 +1,178 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class EncodedPageTest extends SimpleDbTestBase {
+
+    private static final String[] COLORS = { "red", "green", "blue" };
+
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        this.td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private Field[] row(int i) {
+        return new Field[] { new IntField(i / 100), new StringField(COLORS[i % 3], Type.STRING_LEN),
+                             new IntField(i) };
+    }
+
+    /**
+     * Runs and repeated strings are encoded; the tuples read back are the
+     * ones added.
+     */
+    @Test public void encode() throws Exception {
+        EncodedPage.Encoder encoder = new EncodedPage.Encoder(td, BufferPool.getPageSize());
+        int n = 0;
+        while (encoder.add(row(n)))
+            n++;
+        // a HeapPage holds 29 of these tuples, plain ints alone take 8 bytes
+        assertTrue(n > BufferPool.getPageSize() / 10);
+        byte[] data = encoder.finish();
+        assertEquals(0, encoder.size());
+
+        EncodedPage page = new EncodedPage(pid, data);
+        assertEquals((n - 1) / 100 + 1, page.getNumValues(0));
+        assertEquals(3, page.getNumValues(1));
+        assertEquals(n, page.getNumValues(2));
+        Iterator<Tuple> it = page.iterator();
+        for (int i = 0; i < n; ++i) {
+            Tuple t = it.next();
+            for (int f = 0; f < 3; f++)
+                assertEquals(row(i)[f], t.getField(f));
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+        }
+        assertFalse(it.hasNext());
+        assertArrayEquals(data, page.getPageData());
+        assertEquals(0, page.getNumEmptySlots());
+        try {
+            page.insertTuple(page.iterator().next());
+            fail("expected DbException");
+        } catch (DbException e) {
+        }
+    }
+
+    /**
+     * filter() compares dictionary entries and runs instead of tuples.
+     */
+    @Test public void filter() throws Exception {
+        EncodedPage.Encoder encoder = new EncodedPage.Encoder(td, BufferPool.getPageSize());
+        for (int i = 0; i < 300; ++i)
+            assertTrue(encoder.add(row(i)));
+        EncodedPage page = new EncodedPage(pid, encoder.finish());
+
+        BitSet green = page.filter(1, Predicate.Op.EQUALS, new StringField("green", Type.STRING_LEN));
+        assertEquals(100, green.cardinality());
+        assertTrue(green.get(1));
+        assertFalse(green.get(2));
+        BitSet late = page.filter(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(2));
+        assertEquals(100, late.cardinality());
+        assertEquals(200, late.nextSetBit(0));
+    }
+
+    /**
+     * A predicate pushed down into a scan selects the rows it passes
+     * without creating a tuple per slot.
+     */
+    @Test public void pushdown() throws Exception {
+        EncodedPage.Encoder encoder = new EncodedPage.Encoder(td, BufferPool.getPageSize());
+        for (int i = 0; i < 300; ++i)
+            assertTrue(encoder.add(row(i)));
+        EncodedPage page = new EncodedPage(pid, encoder.finish());
+
+        Predicate blue = new InPredicate(1, new StringField("blue", Type.STRING_LEN),
+                                         new StringField("black", Type.STRING_LEN));
+        TupleBatch b = new TupleBatch(td, 1000);
+        assertEquals(-1, page.fillBatch(b, 0, blue));
+        assertEquals(100, b.numSelected());
+        for (int k = 0; k < b.numSelected(); k++) {
+            int row = b.selected(k);
+            assertEquals(new RecordId(pid, 3 * k + 2), b.getRecordId(row));
+            assertEquals("blue", b.getStringColumn(1)[row]);
+            assertEquals(3 * k + 2, b.getIntColumn(2)[row]);
+        }
+
+        Predicate late = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(2));
+        assertFalse(page.passes(late, 199));
+        assertTrue(page.passes(late, 200));
+        b = new TupleBatch(td, 50);
+        assertEquals(250, page.fillBatch(b, 0, late));
+        assertEquals(new RecordId(pid, 200), b.getRecordId(b.selected(0)));
+        for (int i = 0; i < 300; ++i)
+            assertNull(page.tuples[i]);
+    }
+
+    /**
+     * An all-zero page is an empty page.
+     */
+    @Test public void emptyPage() throws Exception {
+        EncodedPage page = new EncodedPage(pid, HeapPage.createEmptyPageData());
+        assertFalse(page.iterator().hasNext());
+        ByteBuffer data = ByteBuffer.wrap(new EncodedPage.Encoder(td, BufferPool.getPageSize()).finish());
+        assertEquals(0, data.getInt(0));
+    }
+
+    /**
+     * HeapFileEncoder writes EncodedPages that an EncodedHeapFile reads.
+     */
+    @Test public void convertEncoded() throws Exception {
+        File text = File.createTempFile("encoded", ".txt");
+        text.deleteOnExit();
+        File dat = File.createTempFile("encoded", ".dat");
+        dat.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < 2000; ++i)
+            w.write((i / 100) + "," + COLORS[i % 3] + "," + i + "\n");
+        w.close();
+        HeapFileEncoder.convertEncoded(text, dat, BufferPool.getPageSize(), 3,
+                new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE }, ',');
+
+        EncodedHeapFile hf = new EncodedHeapFile(dat, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertEquals(dat.length() / BufferPool.getPageSize(), hf.numPages());
+        assertTrue(hf.numPages() < 2000 / 400);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (int i = 0; i < 2000; ++i) {
+            Tuple t = it.next();
+            assertEquals(row(i)[1], t.getField(1));
+            assertEquals(row(i)[2], t.getField(2));
+        }
+        assertFalse(it.hasNext());
+        it.close();
+        try {
+            hf.insertTuple(tid, Utility.getHeapTuple(1, 3));
+            fail("expected DbException");
+        } catch (DbException e) {
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EncodedPageTest.class);
+    }
+}
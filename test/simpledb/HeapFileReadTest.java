@@ -3,6 +3,8 @@ package simpledb;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.util.*;
 import org.junit.After;
 import org.junit.Before;
@@ -62,6 +64,25 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         // assertEquals(1, empty.numPages());
     }
 
+    /**
+     * HeapFile.numPages() is cached; refreshNumPages() picks up pages
+     * appended to the file from outside.
+     */
+    @Test
+    public void numPagesCached() throws Exception {
+        assertEquals(1, hf.numPages());
+        appendEmptyPage(hf.getFile());
+        assertEquals(1, hf.numPages());
+        assertEquals(2, hf.refreshNumPages());
+        assertEquals(2, hf.numPages());
+    }
+
+    private static void appendEmptyPage(File f) throws Exception {
+        FileOutputStream out = new FileOutputStream(f, true);
+        out.write(new byte[BufferPool.getPageSize()]);
+        out.close();
+    }
+
     /**
      * Unit test for HeapFile.readPage()
      */
@@ -77,6 +98,131 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() past the end of the file
+     */
+    @Test
+    public void readPageOutOfBounds() throws Exception {
+        try {
+            hf.readPage(new HeapPageId(hf.getId(), 1));
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        // the file is still readable afterwards
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        assertEquals(484, page.getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for HeapFile.readPages()
+     */
+    @Test
+    public void readPages() throws Exception {
+        // three pages of 992 tuples each
+        HeapFile threePages = SystemTestUtil.createRandomHeapFile(1, 992 * 3, null, null);
+        HeapFile mapped = new HeapFile(threePages.getFile(), threePages.getTupleDesc(), true);
+        for (HeapFile f : new HeapFile[] { threePages, mapped }) {
+            Page[] pages = f.readPages(new HeapPageId(f.getId(), 1), 5);
+            assertEquals(2, pages.length);
+            for (int i = 0; i < pages.length; i++) {
+                HeapPageId pid = new HeapPageId(f.getId(), i + 1);
+                assertEquals(pid, pages[i].getId());
+                assertArrayEquals(f.readPage(pid).getPageData(), pages[i].getPageData());
+            }
+            try {
+                f.readPages(new HeapPageId(f.getId(), 3), 2);
+                fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+            }
+        }
+        mapped.close();
+    }
+
+    /**
+     * A scan with a predicate returns the tuples that pass it, by tuple or
+     * by batch, and creates no Tuple for the others.
+     */
+    @Test
+    public void predicateScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, tuples);
+        Predicate pred = new AndPredicate(
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(1 << 14)),
+                new NotPredicate(new BetweenPredicate(1, new IntField(0), new IntField(1 << 15))));
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        int onFirstPage = 0;
+        for (int i = 0; i < tuples.size(); i++) {
+            ArrayList<Integer> t = tuples.get(i);
+            if (t.get(0) < (1 << 14) && t.get(1) > (1 << 15)) {
+                expected.add(t);
+                if (i < 504)
+                    onFirstPage++;
+            }
+        }
+        assertTrue(expected.size() > 0 && expected.size() < tuples.size());
+
+        SystemTestUtil.matchTuples(new SeqScan(tid, f.getId(), "t", pred), expected);
+        HeapPage first = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
+        int created = 0;
+        for (Tuple t : first.tuples) {
+            if (t != null)
+                created++;
+        }
+        assertEquals(onFirstPage, created);
+
+        SeqScan scan = new SeqScan(tid, f.getId(), "t", pred);
+        TupleBatch b = new TupleBatch(f.getTupleDesc(), 100);
+        int count = 0;
+        scan.open();
+        while (scan.nextBatch(b))
+            count += b.numSelected();
+        scan.close();
+        assertEquals(expected.size(), count);
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() in memory-mapped mode
+     */
+    @Test
+    public void readPageMapped() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        assertTrue(mapped.isMapped());
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage expected = (HeapPage) hf.readPage(pid);
+        HeapPage actual = (HeapPage) mapped.readPage(pid);
+        assertEquals(484, actual.getNumEmptySlots());
+        assertArrayEquals(expected.getPageData(), actual.getPageData());
+
+        try {
+            mapped.readPage(new HeapPageId(hf.getId(), 1));
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        mapped.close();
+    }
+
+    /**
+     * Tuples read from a mapped page keep their values when the file is
+     * written under the mapping.
+     */
+    @Test
+    public void mappedTuplesSurviveWrites() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) mapped.readPage(pid);
+        Iterator<Tuple> it = page.iterator();
+        Tuple first = it.next();
+        int a = first.getInt(0);
+        int b = first.getInt(1);
+
+        hf.writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+        assertEquals(a, first.getInt(0));
+        assertEquals(b, first.getInt(1));
+        assertEquals(a, ((IntField) first.getField(0)).getValue());
+        mapped.close();
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -101,6 +247,73 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Iterating skips empty pages and copes with files without pages.
+     */
+    @Test
+    public void testIteratorEmptyPages() throws Exception {
+        HeapFile twoPageFile = SystemTestUtil.createRandomHeapFile(2, 504 * 2,
+                null, null);
+        // an empty page in the middle of the file, and one at the end
+        File f = twoPageFile.getFile();
+        byte[] firstPage = twoPageFile.readPage(new HeapPageId(twoPageFile.getId(), 0)).getPageData();
+        byte[] secondPage = twoPageFile.readPage(new HeapPageId(twoPageFile.getId(), 1)).getPageData();
+        FileOutputStream out = new FileOutputStream(f);
+        out.write(firstPage);
+        out.write(new byte[BufferPool.getPageSize()]);
+        out.write(secondPage);
+        out.write(new byte[BufferPool.getPageSize()]);
+        out.close();
+        twoPageFile.refreshNumPages();
+
+        DbFileIterator it = twoPageFile.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertNotNull(it.next());
+            count += 1;
+        }
+        assertEquals(504 * 2, count);
+        it.close();
+
+        File emptyFile = File.createTempFile("empty", ".dat");
+        emptyFile.deleteOnExit();
+        HeapFile empty = new HeapFile(emptyFile, td);
+        Database.getCatalog().addTable(empty, SystemTestUtil.getUUID());
+        it = empty.iterator(tid);
+        it.open();
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    /**
+     * A scan opened on an empty file reads pages appended to it from the
+     * first one on.
+     */
+    @Test
+    public void testIteratorStartsEmpty() throws Exception {
+        HeapFile twoPageFile = SystemTestUtil.createRandomHeapFile(2, 504 * 2,
+                null, null);
+        File emptyFile = File.createTempFile("empty", ".dat");
+        emptyFile.deleteOnExit();
+        HeapFile empty = new HeapFile(emptyFile, td);
+        Database.getCatalog().addTable(empty, SystemTestUtil.getUUID());
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+
+        FileOutputStream out = new FileOutputStream(emptyFile);
+        for (int pg = 0; pg < 2; pg++)
+            out.write(twoPageFile.readPage(new HeapPageId(twoPageFile.getId(), pg)).getPageData());
+        out.close();
+        int count = 0;
+        while (it.hasNext()) {
+            assertNotNull(it.next());
+            count += 1;
+        }
+        assertEquals(504 * 2, count);
+        it.close();
+    }
+
     @Test
     public void testIteratorClose() throws Exception {
         // make more than 1 page. Previous closed iterator would start fetching
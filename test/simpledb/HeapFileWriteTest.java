@@ -0,0 +1,147 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapFileWriteTest extends SimpleDbTestBase {
+    private TransactionId tid;
+    private File file;
+    private HeapFile empty;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("empty", ".dat");
+        file.deleteOnExit();
+        FreeSpaceMap.sidecarFile(file).deleteOnExit();
+        empty = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        FreeSpaceMap.sidecarFile(file).delete();
+    }
+
+    /**
+     * Unit test for HeapFile.insertTuple(): pages are filled one after the
+     * other, and new pages are appended when all are full.
+     */
+    @Test public void addTuple() throws Exception {
+        // we should be able to add 504 tuples on an empty page
+        for (int i = 0; i < 504; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+            assertEquals(1, empty.numPages());
+        }
+
+        // the next 504 additions should live on a new page
+        for (int i = 0; i < 504; ++i) {
+            Tuple t = Utility.getHeapTuple(i, 2);
+            empty.insertTuple(tid, t);
+            assertEquals(2, empty.numPages());
+            assertEquals(1, t.getRecordId().getPageId().pageNumber());
+        }
+
+        // and one more, just for fun...
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(3, empty.numPages());
+    }
+
+    /**
+     * Deleted slots are found again through the free space map.
+     */
+    @Test public void deleteThenInsert() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        Tuple[] tuples = new Tuple[504 * 2];
+        for (int i = 0; i < tuples.length; ++i) {
+            tuples[i] = Utility.getHeapTuple(i, 2);
+            bp.insertTuple(tid, empty.getId(), tuples[i]);
+        }
+        assertEquals(2, empty.numPages());
+
+        bp.deleteTuple(tid, tuples[10]);
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        bp.insertTuple(tid, empty.getId(), t);
+        assertEquals(new HeapPageId(empty.getId(), 0), t.getRecordId().getPageId());
+        assertEquals(10, t.getRecordId().tupleno());
+        assertEquals(2, empty.numPages());
+
+        // a tuple of another table cannot be deleted
+        try {
+            empty.deleteTuple(tid, Utility.getHeapTuple(0, 2));
+            fail("expected DbException");
+        } catch (DbException e) {
+        }
+    }
+
+    /**
+     * The free space map is written next to the table and read back when
+     * the table is opened again.
+     */
+    @Test public void freeSpaceMapPersists() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        for (int i = 0; i < 504 + 10; ++i)
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        bp.flushAllPages();
+        assertEquals(8L, FreeSpaceMap.sidecarFile(file).length());
+
+        HeapFile reopened = Utility.openHeapFile(2, file);
+        FreeSpaceMap fsm = FreeSpaceMap.open(reopened);
+        assertEquals(2, fsm.numPages());
+        assertEquals(0, fsm.getFreeSlots(0));
+        assertEquals(504 - 10, fsm.getFreeSlots(1));
+        assertEquals(1, fsm.pageWithSpace());
+        fsm.close();
+    }
+
+    /**
+     * Unit test for HeapFile.bulkLoad(): tuples are appended on fresh pages
+     * after the existing ones, with one log record per batch of pages.
+     */
+    @Test public void bulkLoad() throws Exception {
+        int pages = HeapFile.BULK_BATCH_PAGES + 2;
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 504 * (pages - 1) + 5; ++i)
+            tuples.add(Utility.getHeapTuple(i, 2));
+
+        int records = Database.getLogFile().getTotalRecords();
+        assertEquals(tuples.size(), empty.bulkLoad(tid, tuples.iterator()));
+        assertEquals(records + 2, Database.getLogFile().getTotalRecords());
+        assertEquals(1 + pages, empty.numPages());
+        assertEquals(new RecordId(new HeapPageId(empty.getId(), 1), 0),
+                tuples.get(0).getRecordId());
+        assertEquals(new RecordId(new HeapPageId(empty.getId(), pages), 4),
+                tuples.get(tuples.size() - 1).getRecordId());
+
+        HeapFile reopened = Utility.openHeapFile(2, file);
+        assertEquals(1 + pages, reopened.numPages());
+        DbFileIterator it = reopened.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(new IntField(count), t.getField(0));
+            count++;
+        }
+        it.close();
+        assertEquals(tuples.size(), count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileWriteTest.class);
+    }
+}
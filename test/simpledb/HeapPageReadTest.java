@@ -6,13 +6,16 @@ import simpledb.systemtest.SystemTestUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import junit.framework.JUnit4TestAdapter;
 
 public class HeapPageReadTest extends SimpleDbTestBase {
@@ -120,6 +123,104 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * The slot bitmap counts and writes back exactly numSlots bits, even if
+     * the header has bits set for slots that do not exist.
+     */
+    @Test public void fullHeader() throws Exception {
+        // three int fields: 337 slots, 43 header bytes
+        Database.getCatalog().addTable(new SkeletonFile(-2, Utility.getTupleDesc(3)), SystemTestUtil.getUUID());
+        byte[] data = HeapPage.createEmptyPageData();
+        Arrays.fill(data, 0, 43, (byte) 0xff);
+        HeapPage page = new HeapPage(new HeapPageId(-2, 0), data);
+
+        assertEquals(0, page.getNumEmptySlots());
+        assertTrue(page.isSlotUsed(336));
+        int count = 0;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); it.next())
+            count++;
+        assertEquals(337, count);
+
+        byte[] written = page.getPageData();
+        assertEquals((byte) 0xff, written[41]);
+        assertEquals((byte) 0x01, written[42]);
+        assertEquals(0, written[43]);
+    }
+
+    /**
+     * The iterator skips holes anywhere on the page, including whole words
+     * of empty slots.
+     */
+    @Test public void testIteratorSparse() throws Exception {
+        byte[] data = HeapPage.createEmptyPageData();
+        int[] slots = new int[] { 0, 5, 63, 64, 300, 503 };
+        for (int s : slots)
+            data[s / 8] |= 1 << (s % 8);
+        HeapPage page = new HeapPage(pid, data);
+        assertEquals(504 - slots.length, page.getNumEmptySlots());
+
+        Iterator<Tuple> it = page.iterator();
+        for (int s : slots) {
+            assertTrue(it.hasNext());
+            assertEquals(s, it.next().getRecordId().tupleno());
+        }
+        assertFalse(it.hasNext());
+        try {
+            it.next();
+            fail("expected NoSuchElementException");
+        } catch (NoSuchElementException e) {
+        }
+    }
+
+    /**
+     * getPageData() reproduces the page whether or not its tuples have been
+     * decoded.
+     */
+    @Test public void getPageData() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+
+        Iterator<Tuple> it = page.iterator();
+        it.next().getField(1);
+        it.next();
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+    }
+
+    /**
+     * writePageData() writes the bytes of getPageData() at the buffer's
+     * position.
+     */
+    @Test public void writePageData() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        page.iterator().next().setField(1, new IntField(42));
+        byte[] expected = page.getPageData();
+
+        ByteBuffer buf = ByteBuffer.allocateDirect(expected.length + 10);
+        buf.position(10);
+        page.writePageData(buf);
+        assertEquals(expected.length + 10, buf.position());
+        byte[] actual = new byte[expected.length];
+        buf.position(10);
+        buf.get(actual);
+        assertArrayEquals(expected, actual);
+    }
+
+    /**
+     * The before-image is the page as read until setBeforeImage() is called.
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertArrayEquals(EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        page.iterator().next().setField(0, new IntField(-1));
+        byte[] changed = page.getPageData();
+        assertFalse(Arrays.equals(EXAMPLE_DATA, changed));
+        assertArrayEquals(EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        page.setBeforeImage();
+        assertArrayEquals(changed, page.getBeforeImage().getPageData());
+    }
+
     /**
      * JUnit suite target
      */
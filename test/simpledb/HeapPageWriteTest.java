@@ -0,0 +1,109 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapPageWriteTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Unit test for HeapPage.insertTuple()
+     */
+    @Test public void addTuple() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        int free = page.getNumEmptySlots();
+
+        for (int i = 0; i < free; ++i) {
+            Tuple addition = Utility.getHeapTuple(i, 2);
+            page.insertTuple(addition);
+            assertEquals(free - i - 1, page.getNumEmptySlots());
+            assertEquals(pid, addition.getRecordId().getPageId());
+            assertEquals(i, addition.getRecordId().tupleno());
+        }
+
+        // the page is full now
+        try {
+            page.insertTuple(Utility.getHeapTuple(0, 2));
+            fail("page should be full; expected DbException");
+        } catch (DbException e) {
+        }
+
+        // the tuples survive a round trip through the page bytes
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < free; ++i)
+            assertEquals(new IntField(i), it.next().getField(0));
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Unit test for HeapPage.insertTuple() with a tuple of another schema
+     */
+    @Test public void addTupleWrongSchema() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        try {
+            page.insertTuple(Utility.getHeapTuple(0, 3));
+            fail("expected DbException");
+        } catch (DbException e) {
+        }
+    }
+
+    /**
+     * Unit test for HeapPage.deleteTuple(); the freed slot is reused
+     */
+    @Test public void deleteTuple() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        Tuple[] added = new Tuple[3];
+        for (int i = 0; i < added.length; ++i) {
+            added[i] = Utility.getHeapTuple(i, 2);
+            page.insertTuple(added[i]);
+        }
+        int free = page.getNumEmptySlots();
+
+        page.deleteTuple(added[1]);
+        assertNull(added[1].getRecordId());
+        assertEquals(free + 1, page.getNumEmptySlots());
+        assertFalse(page.isSlotUsed(1));
+
+        // deleting twice fails
+        try {
+            page.deleteTuple(added[1]);
+            fail("expected DbException");
+        } catch (DbException e) {
+        }
+
+        Iterator<Tuple> it = page.iterator();
+        assertEquals(new IntField(0), it.next().getField(0));
+        assertEquals(new IntField(2), it.next().getField(0));
+        assertFalse(it.hasNext());
+
+        Tuple again = Utility.getHeapTuple(7, 2);
+        page.insertTuple(again);
+        assertEquals(1, again.getRecordId().tupleno());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapPageWriteTest.class);
+    }
+}
@@ -0,0 +1,65 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LogFileTest extends SimpleDbTestBase {
+
+    /**
+     * Page data written to the log reads back as the same page, in the
+     * format the log has always used.
+     */
+    @Test
+    public void pageDataRoundTrip() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 20, null, null);
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+
+        File f = File.createTempFile("log", ".txt");
+        f.deleteOnExit();
+        LogFile log = new LogFile(f);
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        log.writePageData(raf, page);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeUTF(page.getClass().getName());
+        dos.writeUTF(page.getId().getClass().getName());
+        int[] info = page.getId().serialize();
+        dos.writeInt(info.length);
+        for (int i : info)
+            dos.writeInt(i);
+        dos.writeInt(page.getPageData().length);
+        dos.write(page.getPageData());
+        dos.close();
+
+        assertEquals(baos.size(), raf.length());
+        byte[] written = new byte[baos.size()];
+        raf.seek(0);
+        raf.readFully(written);
+        assertTrue(Arrays.equals(baos.toByteArray(), written));
+
+        raf.seek(0);
+        Page read = log.readPageData(raf);
+        assertEquals(page.getId(), read.getId());
+        assertArrayEquals(page.getPageData(), read.getPageData());
+        raf.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogFileTest.class);
+    }
+}
@@ -0,0 +1,177 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PaxPageTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    /**
+     * The values of a field are stored together, after the header.
+     */
+    @Test public void columnLayout() throws Exception {
+        PaxPage page = new PaxPage(pid, HeapPage.createEmptyPageData());
+        int slots = page.getNumEmptySlots();
+        for (int i = 0; i < 3; ++i)
+            page.insertTuple(Utility.getHeapTuple(new int[] { i, 100 + i }));
+
+        ByteBuffer data = ByteBuffer.wrap(page.getPageData());
+        int header = (slots + 7) / 8;
+        assertEquals(0x07, data.get(0));
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(i, data.getInt(header + 4 * i));
+            assertEquals(100 + i, data.getInt(header + 4 * slots + 4 * i));
+        }
+    }
+
+    /**
+     * Tuples survive a round trip through the page bytes, also when only
+     * some of them were decoded and the page was changed.
+     */
+    @Test public void roundTrip() throws Exception {
+        PaxPage page = new PaxPage(pid, HeapPage.createEmptyPageData());
+        int free = page.getNumEmptySlots();
+        Tuple[] tuples = new Tuple[free];
+        for (int i = 0; i < free; ++i) {
+            tuples[i] = Utility.getHeapTuple(new int[] { i, -i });
+            page.insertTuple(tuples[i]);
+        }
+
+        PaxPage copy = new PaxPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        assertEquals(new IntField(0), it.next().getField(1));
+        copy.deleteTuple(it.next());
+        copy.insertTuple(Utility.getHeapTuple(new int[] { 7, 8 }));
+
+        HeapPage again = copy.getBeforeImage();
+        assertTrue(again instanceof PaxPage);
+        again = new PaxPage(pid, copy.getPageData());
+        it = again.iterator();
+        for (int i = 0; i < free; ++i) {
+            Tuple t = it.next();
+            assertEquals(new IntField(i == 1 ? 7 : i), t.getField(0));
+            assertEquals(new IntField(i == 1 ? 8 : -i), t.getField(1));
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * A PaxHeapFile is filled and scanned like a HeapFile.
+     */
+    @Test public void paxHeapFile() throws Exception {
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        PaxHeapFile hf = new PaxHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 1000; ++i)
+            tuples.add(Utility.getHeapTuple(new int[] { i, 2 * i }));
+        assertEquals(1000, hf.bulkLoad(tid, tuples.iterator()));
+        assertTrue(hf.readPage(new HeapPageId(hf.getId(), 0)) instanceof PaxPage);
+
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (int i = 0; i < 1000; ++i) {
+            Tuple t = it.next();
+            assertEquals(new IntField(2 * i), t.getField(1));
+            assertEquals(new IntField(i), t.getField(0));
+        }
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A line that cannot be stored fails the conversion, whatever the
+     * format written.
+     */
+    @Test public void convertBadLines() throws Exception {
+        File dat = File.createTempFile("pax", ".dat");
+        dat.deleteOnExit();
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+        String[] bad = { "1,s\nx,s\n", "1,s\n2\n", "1,s,t\n" };
+        for (String lines : bad) {
+            File text = File.createTempFile("pax", ".txt");
+            text.deleteOnExit();
+            FileWriter w = new FileWriter(text);
+            w.write(lines);
+            w.close();
+            try {
+                HeapFileEncoder.convert(text, dat, BufferPool.getPageSize(), 2, types, ',');
+                fail("expected IOException");
+            } catch (IOException e) {
+            }
+            try {
+                HeapFileEncoder.convertPax(text, dat, BufferPool.getPageSize(), 2, types, ',');
+                fail("expected IOException");
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * HeapFileEncoder writes PaxPages that a PaxHeapFile reads.
+     */
+    @Test public void convertPax() throws Exception {
+        File text = File.createTempFile("pax", ".txt");
+        text.deleteOnExit();
+        File dat = File.createTempFile("pax", ".dat");
+        dat.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < 1000; ++i)
+            w.write(i + ",s" + (i % 7) + "\n");
+        w.close();
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+        HeapFileEncoder.convertPax(text, dat, BufferPool.getPageSize(), 2, types, ',');
+
+        PaxHeapFile hf = new PaxHeapFile(dat, new TupleDesc(types));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        // int plus string: 30 tuples per page
+        assertEquals((1000 + 29) / 30, hf.numPages());
+        HeapPage last = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), hf.numPages() - 1));
+        assertEquals(30 - 1000 % 30, last.getNumEmptySlots());
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (int i = 0; i < 1000; ++i) {
+            Tuple t = it.next();
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals(new StringField("s" + (i % 7), Type.STRING_LEN), t.getField(1));
+        }
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxPageTest.class);
+    }
+}
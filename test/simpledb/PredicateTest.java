@@ -0,0 +1,284 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PredicateTest extends SimpleDbTestBase {
+
+    /**
+     * Every operator agrees with IntField.compare, on tuples, on page bytes
+     * and on batches.
+     */
+    @Test public void filterInts() {
+        TupleDesc td = Utility.getTupleDesc(2);
+        int[] values = { Integer.MIN_VALUE, -3, 0, 1, 2, 3, Integer.MAX_VALUE };
+        for (Predicate.Op op : Predicate.Op.values()) {
+            IntField operand = new IntField(2);
+            Predicate p = new Predicate(1, op, operand).bind(td);
+            TupleBatch b = new TupleBatch(td, values.length);
+            int expected = 0;
+            for (int v : values) {
+                Tuple t = Utility.getHeapTuple(new int[] { 0, v });
+                boolean match = new IntField(v).compare(op, operand);
+                assertEquals(op + " " + v, match, p.filter(t));
+                ByteBuffer buf = ByteBuffer.allocate(td.getSize());
+                t.serialize(buf);
+                assertEquals(op + " " + v, match, p.filter(buf, td.getFieldOffset(1)));
+                b.add(t);
+                if (match)
+                    expected++;
+            }
+            p.filter(b);
+            assertEquals(op.toString(), expected, b.numSelected());
+        }
+    }
+
+    /**
+     * Every operator agrees with StringField.compare, on tuples and on page
+     * bytes.
+     */
+    @Test public void filterStrings() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        String[] values = { "", "a", "ab", "abc", "abd", "b", "xabcx", "zz" };
+        String[] operands = { "", "ab", "abc", "b" };
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (String o : operands) {
+                StringField operand = new StringField(o, Type.STRING_LEN);
+                Predicate p = new Predicate(1, op, operand).bind(td);
+                for (String v : values) {
+                    Tuple t = new Tuple(td);
+                    t.setField(0, new IntField(0));
+                    t.setField(1, new StringField(v, Type.STRING_LEN));
+                    boolean match = t.getField(1).compare(op, operand);
+                    String msg = "'" + v + "' " + op + " '" + o + "'";
+                    assertEquals(msg, match, p.filter(t));
+                    ByteBuffer buf = ByteBuffer.allocate(td.getSize());
+                    t.serialize(buf);
+                    assertEquals(msg, match, p.filter(buf, td.getFieldOffset(1)));
+                }
+            }
+        }
+    }
+
+    /**
+     * String predicates shared by several threads compare each thread's
+     * own tuples.
+     */
+    @Test public void sharedStringPredicate() throws Exception {
+        final TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        final Predicate p = new Predicate(1, Predicate.Op.EQUALS,
+                new StringField("abc", Type.STRING_LEN)).bind(td);
+        // left unbound, so its comparisons are built by the threads
+        final Predicate between = new BetweenPredicate(1, new StringField("abb", Type.STRING_LEN),
+                new StringField("abc", Type.STRING_LEN));
+        final int THREADS = 4;
+        final boolean[] wrong = new boolean[THREADS];
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int id = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    Tuple tuple = new Tuple(td);
+                    tuple.setField(0, new IntField(0));
+                    tuple.setField(1, new StringField(id % 2 == 0 ? "abc" : "abd", Type.STRING_LEN));
+                    try {
+                        for (int i = 0; i < 100000; i++) {
+                            if (p.filter(tuple) != (id % 2 == 0) || between.filter(tuple) != (id % 2 == 0))
+                                wrong[id] = true;
+                        }
+                    } catch (RuntimeException e) {
+                        wrong[id] = true;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        for (boolean w : wrong)
+            assertFalse(w);
+    }
+
+    /**
+     * Compound predicates agree with their terms combined by hand, on
+     * tuples and on batches.
+     */
+    @Test public void compound() {
+        TupleDesc td = Utility.getTupleDesc(2);
+        Predicate low = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(30));
+        Predicate odd = new InPredicate(1, new IntField(1), new IntField(3));
+        Predicate mid = new BetweenPredicate(0, new IntField(20), new IntField(60));
+        Predicate[] preds = {
+            new AndPredicate(low, odd),
+            new OrPredicate(low, odd, mid),
+            new NotPredicate(new OrPredicate(low, mid)),
+            new AndPredicate(new OrPredicate(low, odd), new NotPredicate(mid)),
+        };
+        for (Predicate p : preds) {
+            p.bind(td);
+            TupleBatch b = new TupleBatch(td, 100);
+            int expected = 0;
+            for (int i = 0; i < 100; i++) {
+                Tuple t = Utility.getHeapTuple(new int[] { i, i % 4 });
+                boolean l = i < 30, o = i % 4 == 1 || i % 4 == 3, m = i >= 20 && i <= 60;
+                boolean match;
+                if (p == preds[0])
+                    match = l && o;
+                else if (p == preds[1])
+                    match = l || o || m;
+                else if (p == preds[2])
+                    match = !(l || m);
+                else
+                    match = (l || o) && !m;
+                assertEquals(p + " " + i, match, p.filter(t));
+                b.add(t);
+                if (match)
+                    expected++;
+            }
+            p.filter(b);
+            assertEquals(p.toString(), expected, b.numSelected());
+            for (int k = 0; k < b.numSelected(); k++)
+                assertTrue(p.filter(b.getTuple(b.selected(k))));
+        }
+    }
+
+    /**
+     * In and Between on strings compare as StringField does.
+     */
+    @Test public void inAndBetweenStrings() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+        Predicate in = new InPredicate(0, new StringField("ab", Type.STRING_LEN),
+                new StringField("b", Type.STRING_LEN)).bind(td);
+        Predicate between = new BetweenPredicate(0, new StringField("ab", Type.STRING_LEN),
+                new StringField("b", Type.STRING_LEN)).bind(td);
+        String[] values = { "a", "ab", "abc", "b", "ba" };
+        boolean[] inExpected = { false, true, false, true, false };
+        boolean[] betweenExpected = { false, true, true, true, false };
+        for (int i = 0; i < values.length; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(values[i], Type.STRING_LEN));
+            ByteBuffer buf = ByteBuffer.allocate(td.getSize());
+            t.serialize(buf);
+            assertEquals(values[i], inExpected[i], in.filter(t));
+            assertEquals(values[i], inExpected[i], in.filter(buf, 0));
+            assertEquals(values[i], betweenExpected[i], between.filter(t));
+            assertEquals(values[i], betweenExpected[i], between.filter(buf, 0));
+        }
+
+        // more values, with characters above 0x7f, on tuples, bytes and batches
+        String[] set = { "zeta", "", "\u00e9t\u00e9", "ab", "b", "etc" };
+        Field[] fields = new Field[set.length];
+        for (int i = 0; i < set.length; i++)
+            fields[i] = new StringField(set[i], Type.STRING_LEN);
+        in = new InPredicate(0, fields).bind(td);
+        String[] probes = { "", "a", "ab", "\u00e9t\u00e9", "\u00e9t", "etc", "zeta", "zz" };
+        boolean[] expected = { true, false, true, true, false, true, true, false };
+        TupleBatch b = new TupleBatch(td, probes.length);
+        for (int i = 0; i < probes.length; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(probes[i], Type.STRING_LEN));
+            ByteBuffer buf = ByteBuffer.allocate(td.getSize());
+            t.serialize(buf);
+            assertEquals(probes[i], expected[i], in.filter(t));
+            assertEquals(probes[i], expected[i], in.filter(buf, 0));
+            b.add(t);
+        }
+        in.filter(b);
+        assertEquals(5, b.numSelected());
+        for (int k = 0; k < b.numSelected(); k++)
+            assertTrue(expected[b.selected(k)]);
+    }
+
+    /**
+     * The term of a conjunction that turns down the most tuples comes to
+     * run first, and the order follows when the data changes.
+     */
+    @Test public void reorder() {
+        TupleDesc td = Utility.getTupleDesc(2);
+        Predicate all = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0));
+        Predicate few = new Predicate(1, Predicate.Op.EQUALS, new IntField(0));
+        AndPredicate and = new AndPredicate(all, few);
+        and.bind(td);
+        assertSame(all, and.evaluationOrder()[0]);
+        for (int i = 0; i < 2 * CompoundPredicate.REORDER_INTERVAL; i++)
+            and.filter(Utility.getHeapTuple(new int[] { i, i % 10 }));
+        assertSame(few, and.evaluationOrder()[0]);
+        assertSame(all, and.getTerms()[0]);
+
+        // now the first field turns most tuples down
+        for (int i = 0; i < 4 * CompoundPredicate.REORDER_INTERVAL; i++)
+            and.filter(Utility.getHeapTuple(new int[] { i % 10 == 0 ? 0 : -1, 0 }));
+        assertSame(all, and.evaluationOrder()[0]);
+    }
+
+    /**
+     * A conjunction shared by several threads gives the right outcome
+     * while its terms are reordered under the threads.
+     */
+    @Test public void sharedCompoundPredicate() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        final AndPredicate and = new AndPredicate(
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)),
+                new Predicate(1, Predicate.Op.EQUALS, new IntField(0)),
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(1000)));
+        and.bind(td);
+        final int THREADS = 4;
+        final Throwable[] errors = new Throwable[THREADS];
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int id = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 50 * CompoundPredicate.REORDER_INTERVAL; i++) {
+                            // the data changes, so the order keeps changing
+                            int a = (i / 5000) % 2 == 0 ? i % 2000 : -(i % 3);
+                            int b = (i + id) % 10;
+                            boolean expected = a >= 0 && b == 0 && a < 1000;
+                            assertEquals(expected, and.filter(Utility.getHeapTuple(new int[] { a, b })));
+                        }
+                    } catch (Throwable e) {
+                        errors[id] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        for (Throwable e : errors)
+            assertNull(e);
+    }
+
+    /**
+     * bind rejects a field of the wrong type or out of range.
+     */
+    @Test public void bind() {
+        TupleDesc td = Utility.getTupleDesc(2);
+        try {
+            new Predicate(0, Predicate.Op.EQUALS, new StringField("a", Type.STRING_LEN)).bind(td);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new Predicate(2, Predicate.Op.EQUALS, new IntField(1)).bind(td);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PredicateTest.class);
+    }
+}
@@ -0,0 +1,209 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        this.td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Short strings take only as much room as they need.
+     */
+    @Test public void shortStrings() throws Exception {
+        SlottedPage page = new SlottedPage(pid, HeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, "ab" + n))) {
+            page.insertTuple(tuple(n, "ab" + n));
+            n++;
+        }
+        // a HeapPage holds 30 of these tuples
+        assertTrue(n > 200);
+        try {
+            page.insertTuple(tuple(0, "ab"));
+            fail("page should be full; expected DbException");
+        } catch (DbException e) {
+        }
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < n; ++i) {
+            Tuple t = it.next();
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals(new StringField("ab" + i, Type.STRING_LEN), t.getField(1));
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Space freed by a delete is reused, and records that were never
+     * decoded are copied as they are.
+     */
+    @Test public void deleteThenInsert() throws Exception {
+        SlottedPage page = new SlottedPage(pid, HeapPage.createEmptyPageData());
+        page.insertTuple(tuple(1, "one"));
+        page.insertTuple(tuple(2, "two"));
+        page.insertTuple(tuple(3, "three"));
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        int free = copy.getNumEmptySlots();
+        Iterator<Tuple> it = copy.iterator();
+        it.next();
+        copy.deleteTuple(it.next());
+        assertTrue(copy.getNumEmptySlots() > free);
+        Tuple t = tuple(4, "a longer string than before");
+        copy.insertTuple(t);
+        assertEquals(new RecordId(pid, 1), t.getRecordId());
+
+        HeapPage before = copy.getBeforeImage();
+        assertTrue(before instanceof SlottedPage);
+        assertEquals(new StringField("two", Type.STRING_LEN), before.getTuple(1).getField(1));
+
+        ByteBuffer data = ByteBuffer.wrap(copy.getPageData());
+        assertEquals(3, data.getShort(0));
+        it = new SlottedPage(pid, data.array()).iterator();
+        assertEquals(new StringField("one", Type.STRING_LEN), it.next().getField(1));
+        assertEquals(new StringField("a longer string than before", Type.STRING_LEN), it.next().getField(1));
+        assertEquals(new IntField(3), it.next().getField(0));
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * A tuple whose string grows after it was inserted is written with its
+     * new size, without overwriting its neighbours.
+     */
+    @Test public void recordsGrowAfterInsert() throws Exception {
+        SlottedPage page = new SlottedPage(pid, HeapPage.createEmptyPageData());
+        Tuple first = tuple(1, "a");
+        page.insertTuple(first);
+        page.insertTuple(tuple(2, "b"));
+        int free = page.getNumEmptySlots();
+        first.setField(1, new StringField("a much longer string", Type.STRING_LEN));
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        assertEquals(new StringField("a much longer string", Type.STRING_LEN), it.next().getField(1));
+        Tuple second = it.next();
+        assertEquals(new IntField(2), second.getField(0));
+        assertEquals(new StringField("b", Type.STRING_LEN), second.getField(1));
+        assertTrue(page.getNumEmptySlots() < free);
+    }
+
+    /**
+     * Strings are stored in ISO-8859-1; other characters are refused.
+     */
+    @Test public void latin1Strings() throws Exception {
+        SlottedPage page = new SlottedPage(pid, HeapPage.createEmptyPageData());
+        page.insertTuple(tuple(1, "caf\u00e9 \u00ff"));
+        Tuple t = new SlottedPage(pid, page.getPageData()).iterator().next();
+        assertEquals(new StringField("caf\u00e9 \u00ff", Type.STRING_LEN), t.getField(1));
+        try {
+            tuple(2, "\u20ac");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    /**
+     * A SlottedHeapFile is filled and scanned like a HeapFile.
+     */
+    @Test public void slottedHeapFile() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.sidecarFile(f).deleteOnExit();
+        SlottedHeapFile hf = new SlottedHeapFile(f, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 1000; ++i)
+            tuples.add(tuple(i, "code" + (i % 7)));
+        assertEquals(1000, hf.bulkLoad(tid, tuples.iterator()));
+        // 1000 tuples of 4 + 6 bytes each fit on 3 pages
+        assertEquals(3, hf.numPages());
+
+        Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(-1, "x"));
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (count < 1000)
+                assertEquals(new StringField("code" + (count % 7), Type.STRING_LEN), t.getField(1));
+            count++;
+        }
+        it.close();
+        assertEquals(1001, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * HeapFileEncoder writes SlottedPages that a SlottedHeapFile reads.
+     */
+    @Test public void convertSlotted() throws Exception {
+        File text = File.createTempFile("slotted", ".txt");
+        text.deleteOnExit();
+        File dat = File.createTempFile("slotted", ".dat");
+        dat.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < 1000; ++i)
+            w.write(i + ",code" + (i % 7) + "\n");
+        w.close();
+        HeapFileEncoder.convertSlotted(text, dat, BufferPool.getPageSize(), 2,
+                new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, ',');
+
+        SlottedHeapFile hf = new SlottedHeapFile(dat, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        // as many pages as a bulk load fills
+        assertEquals(3, hf.numPages());
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (int i = 0; i < 1000; ++i) {
+            Tuple t = it.next();
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals(new StringField("code" + (i % 7), Type.STRING_LEN), t.getField(1));
+        }
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
@@ -206,6 +206,10 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public Page[] readPages(PageId first, int count) {
+            throw new RuntimeException("not implemented");
+        }
+
         public int numPages() {
             throw new RuntimeException("not implemented");
         }
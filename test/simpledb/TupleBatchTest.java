@@ -0,0 +1,103 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+
+    /**
+     * Batches of a scan hold every tuple of the table, across pages, with
+     * the RecordId of each, and go back to tuples through the adapter.
+     */
+    @Test public void scanBatches() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 1500, null, tuples);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+
+        TupleBatch b = new TupleBatch(f.getTupleDesc(), 100);
+        ArrayList<ArrayList<Integer>> seen = new ArrayList<ArrayList<Integer>>();
+        scan.open();
+        while (scan.nextBatch(b)) {
+            assertEquals(b.size(), b.numSelected());
+            for (int row = 0; row < b.size(); row++) {
+                ArrayList<Integer> list = new ArrayList<Integer>();
+                for (int c = 0; c < 3; c++)
+                    list.add(b.getIntColumn(c)[row]);
+                seen.add(list);
+                assertNotNull(b.getRecordId(row));
+            }
+        }
+        assertEquals(0, b.size());
+        scan.close();
+        assertEquals(tuples, seen);
+
+        SystemTestUtil.matchTuples(new BatchToTupleIterator(
+                new SeqScan(tid, f.getId(), "t"), f.getTupleDesc(), 64), tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * select keeps the live rows that match, in order, and later selects
+     * only look at the rows still live.
+     */
+    @Test public void select() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 20; i++)
+            tuples.add(Utility.getHeapTuple(new int[] { i, i % 4 }));
+        TupleToBatchIterator it = new TupleToBatchIterator(new TupleIterator(td, tuples));
+        TupleBatch b = new TupleBatch(td, TupleBatch.DEFAULT_CAPACITY);
+        it.open();
+        assertTrue(it.nextBatch(b));
+        assertEquals(20, b.size());
+
+        b.select(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(10));
+        assertEquals(10, b.numSelected());
+        b.select(1, Predicate.Op.EQUALS, new IntField(1));
+        assertEquals(2, b.numSelected());
+        assertEquals(13, b.selected(0));
+        assertEquals(17, b.selected(1));
+        assertEquals(new IntField(17), b.getTuple(b.selected(1)).getField(0));
+
+        assertFalse(it.nextBatch(b));
+        it.rewind();
+        assertTrue(it.nextBatch(b));
+        assertEquals(20, b.numSelected());
+        it.close();
+    }
+
+    /**
+     * select on a string column compares as StringField does.
+     */
+    @Test public void selectStrings() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+        TupleBatch b = new TupleBatch(td, 4);
+        String[] values = { "apple", "pear", "banana", "pearl" };
+        for (String v : values) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(v, Type.STRING_LEN));
+            b.add(t);
+        }
+        assertTrue(b.isFull());
+        b.select(0, Predicate.Op.LIKE, new StringField("ear", Type.STRING_LEN));
+        assertEquals(2, b.numSelected());
+        b.select(0, Predicate.Op.GREATER_THAN, new StringField("pear", Type.STRING_LEN));
+        assertEquals(1, b.numSelected());
+        assertEquals("pearl", b.getStringColumn(0)[b.selected(0)]);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleBatchTest.class);
+    }
+}
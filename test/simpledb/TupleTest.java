@@ -1,8 +1,11 @@
 package simpledb;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
 
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
@@ -29,6 +32,66 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Unit test for Tuple.getInt() and Tuple.setInt()
+     */
+    @Test public void modifyInts() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        Tuple tup = new Tuple(td);
+        tup.setInt(0, 5);
+        tup.setField(2, new IntField(7));
+        assertEquals(5, tup.getInt(0));
+        assertEquals(7, tup.getInt(2));
+        assertEquals(new IntField(5), tup.getField(0));
+
+        tup.setInt(2, 8);
+        assertEquals(new IntField(8), tup.getField(2));
+        tup.setField(0, new IntField(6));
+        assertEquals(6, tup.getInt(0));
+
+        try {
+            tup.getInt(1);
+            fail("field 1 is a string; expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            tup.getStringBytes(1, new byte[Type.STRING_LEN]);
+            fail("field 1 is not set; expected NoSuchElementException");
+        } catch (NoSuchElementException e) {
+        }
+        tup.setField(1, new StringField("abc", Type.STRING_LEN));
+        byte[] bytes = new byte[Type.STRING_LEN];
+        assertEquals(3, tup.getStringBytes(1, bytes));
+        assertEquals('c', bytes[2]);
+
+        ByteBuffer buf = ByteBuffer.allocate(td.getSize());
+        tup.serialize(buf);
+        assertEquals(6, buf.getInt(0));
+        assertEquals(8, buf.getInt(td.getFieldOffset(2)));
+    }
+
+    /**
+     * Tuple.getInt() and Tuple.getStringBytes() read fields of a tuple
+     * on a page straight from the page.
+     */
+    @Test public void primitivesFromPage() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        Database.getCatalog().addTable(new TestUtil.SkeletonFile(-1, td), "primitives");
+        HeapPageId pid = new HeapPageId(-1, 0);
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        Tuple t = new Tuple(td);
+        t.setInt(0, 42);
+        t.setField(1, new StringField("hello", Type.STRING_LEN));
+        page.insertTuple(t);
+
+        Tuple read = new HeapPage(pid, page.getPageData()).iterator().next();
+        assertEquals(42, read.getInt(0));
+        byte[] bytes = new byte[Type.STRING_LEN];
+        assertEquals(5, read.getStringBytes(1, bytes));
+        assertEquals("hello", new String(bytes, 0, 5));
+        assertEquals(new IntField(42), read.getField(0));
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */
@@ -71,7 +71,7 @@ public class ScanTest extends SimpleDbTestBase {
      * @throws TransactionAbortedException
      * @throws DbException */
     @Test public void testCache() throws IOException, DbException, TransactionAbortedException {
-        /** Counts the number of readPage operations. */
+        /** Counts the number of pages read, one at a time or in ranges. */
         class InstrumentedHeapFile extends HeapFile {
             public InstrumentedHeapFile(File f, TupleDesc td) {
                 super(f, td);
@@ -83,6 +83,16 @@ public class ScanTest extends SimpleDbTestBase {
                 return super.readPage(pid);
             }
 
+            @Override
+            public Page[] readPages(PageId first, int count) {
+                Page[] pages = super.readPages(first, count);
+                readCount += pages.length;
+                rangeReads += 1;
+                return pages;
+            }
+
+            public int rangeReads = 0;
+
             public int readCount = 0;
         }
 
@@ -97,6 +107,9 @@ public class ScanTest extends SimpleDbTestBase {
         // Scan the table once
         SystemTestUtil.matchTuples(table, tuples);
         assertEquals(PAGES, table.readCount);
+        // the scan reads its pages in ranges
+        assertEquals((PAGES + BufferPool.SCAN_RANGE_PAGES - 1) / BufferPool.SCAN_RANGE_PAGES,
+                table.rangeReads);
         table.readCount = 0;
 
         // Scan the table again: all pages should be cached